@@ -1,15 +1,54 @@
 import java.io.FileWriter;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.InputMismatchException;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Scanner;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 /**
  * The Main class represents the main program for a board game with insects.
@@ -18,888 +57,5714 @@ import java.util.Objects;
  * The results are printed to an output file.
  */
 public class Main {
-    private static Board gameBoard;
-    private static int d;
-    private static int n;
-    private static int m;
-    private static List<Insect> insects;
-
-    public static int getD() {
-        return d;
-    }
 
     /**
      * The main entry point for the program.
      *
-     * @param args The command line arguments (not used in this program).
+     * @param args The command line arguments, described in {@link SimulationConfig#fromArgs(String[])}.
      */
     public static void main(String[] args) {
+        SimulationConfig config = SimulationConfig.fromArgs(args);
+        SimulationMetrics metrics = config.isMetrics() ? new SimulationMetrics() : SimulationMetrics.DISABLED;
         try {
-            // Input Section
-            insects = new ArrayList<>();
-            d = IOHandler.inputInt();
-            final int mind = 4;
-            final int maxd = 1000;
-            if (d < mind || d > maxd) {
-                throw new InvalidBoardException();
-            }
-            gameBoard = new Board(d);
-            n = IOHandler.inputInt();
-            final int minn = 1;
-            final int maxn = 16;
-            if (n < minn || n > maxn) {
-                throw new InvalidNumberOfInsectsException();
-            }
-            m = IOHandler.inputInt();
-            final int minm = 1;
-            final int maxm = 200;
-            if (m < minm || m > maxm) {
-                throw new InvalidNumberOfFoodPointsException();
-            }
-
-            for (int i = 0; i < n; i++) {
-                InsectColor color = InsectColor.toColour(IOHandler.inputString());
-                String insectType = IOHandler.inputString();
-                EntityPosition coordinates = IOHandler.inputCoordinates();
-                for (Insect insect : insects) {
-                    if (insect.color == color && insect.getInsectType().equals(insectType)) {
-                        throw new DuplicateInsectException();
-                    }
-                }
-                Insect insect;
-                if (Objects.equals(insectType, "Butterfly")) {
-                    insect = new Butterfly(coordinates, color);
-                } else if (Objects.equals(insectType, "Ant")) {
-                    insect = new Ant(coordinates, color);
-                } else if (Objects.equals(insectType, "Spider")) {
-                    insect = new Spider(coordinates, color);
-                } else if (Objects.equals(insectType, "Grasshopper")) {
-                    insect = new Grasshopper(coordinates, color);
-                } else {
-                    throw new InvalidInsectTypeException();
-                }
-                insect.setInsectType(insectType);
-                insects.add(insect);
-                gameBoard.addEntity(insect);
-            }
-            for (int i = 0; i < m; i++) {
-                int foodAmount = IOHandler.inputInt();
-                EntityPosition cords = IOHandler.inputCoordinates();
-                gameBoard.addEntity(new FoodPoint(cords, foodAmount));
-            }
-            // End Input Section
-
-            int index = 1;
-            for (Insect insect : insects) {
-                EntityPosition startPosition = insect.entityPosition;
-                Direction dir = insect.getBestDirection(gameBoard.getBoardData(), d);
-                int eaten = insect.travelDirection(dir, gameBoard.getBoardData(), d);
-                IOHandler.print(insect.color.toString() + " " + insect.getInsectType() + ' ' + dir + ' ' + eaten);
-                gameBoard.erase(startPosition);
-                if (index != insects.size()) {
-                    IOHandler.print("\n");
-                }
-                index++;
+            if (config.isBenchmark()) {
+                new SimulationBenchmark(config, System.out).run();
+                return;
             }
-
+            if (config.getDaemonInbox() != null) {
+                new SimulationDaemon(config, metrics, System.out).run(config.getDaemonInbox(), config.getDaemonOutbox());
+            } else if (config.getBatchDirectory() != null) {
+                new BatchRunner(config, metrics).run(config.getBatchDirectory());
+            } else if (config.getExploreVariants() > 0) {
+                IOHandler io = IOHandler.open(Path.of("input.txt"), Path.of("output.txt"), config.isFastIO());
+                new VariantExplorer(config, metrics).run(io);
+            } else {
+                IOHandler io = IOHandler.open(Path.of("input.txt"), Path.of("output.txt"), config.isFastIO());
+                new Scenario(io, config, metrics).run();
+            }
+            if (metrics.isEnabled()) {
+                metrics.printSummary(System.err);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         } catch (Exception e) {
-            IOHandler.print(e.getMessage());
+            throw new RuntimeException(e);
         }
-        IOHandler.close();
-    }
-
-    /**
-     * Deletes a food entity from the game board at the specified position.
-     *
-     * @param position The position of the food entity to be deleted.
-     */
-    public static void deleteFood(EntityPosition position) {
-        gameBoard.erase(position);
     }
 }
 
 /**
- * The IOHandler class handles input and output operations for the program.
- * It reads input from a file and writes output to another file.
+ * The Scenario class represents one game: it reads a board from its input, simulates it and
+ * writes the moves to its output. Scenarios share no state, so several can run at once.
  */
-class IOHandler {
-    private static final Scanner INPUT;
+class Scenario {
+    private final IOHandler io;
+    private final SimulationConfig config;
+    private final SimulationMetrics metrics;
+    private Board gameBoard;
+    private int d;
+    private int n;
+    private int m;
+    private List<Insect> insects;
 
-    static {
-        try {
-            INPUT = new Scanner(new File("input.txt"));
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Constructs a scenario over an I/O context.
+     *
+     * @param io     The input and output of the scenario.
+     * @param config The limits and round settings.
+     */
+    Scenario(IOHandler io, SimulationConfig config) {
+        this(io, config, SimulationMetrics.DISABLED);
     }
 
-    private static FileWriter fileWriter;
+    /**
+     * Constructs a scenario that reports to the given metrics.
+     *
+     * @param io      The input and output of the scenario.
+     * @param config  The limits and round settings.
+     * @param metrics The metrics to count into, possibly shared with other scenarios.
+     */
+    Scenario(IOHandler io, SimulationConfig config, SimulationMetrics metrics) {
+        this.io = io;
+        this.config = config;
+        this.metrics = metrics;
+    }
 
-    static {
+    /**
+     * Reads, simulates and writes the scenario, then closes its output.
+     * Moves are written through a {@link MoveEventSink} chosen by the configuration.
+     * Invalid input is reported through the exception message in the output.
+     * When the configuration names a checkpoint to restore, the board is loaded from it
+     * instead of the input and the simulation resumes after its last round.
+     * The parse, simulate and write phases are timed into the metrics and recorded as
+     * flight recorder events.
+     */
+    public void run() {
+        PhaseEvent phase = PhaseEvent.start();
+        long start = metrics.start();
+        MoveEventSink events = MoveEventSink.open(io, config);
         try {
-            fileWriter = new FileWriter("output.txt");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            int completedRounds = load();
+            Simulation simulation = new Simulation(gameBoard, insects, config, events);
+            simulation.resumeAfter(completedRounds);
+            finishPhase(phase, SimulationMetrics.Phase.PARSE, start);
+
+            phase = PhaseEvent.start();
+            start = metrics.start();
+            simulation.run();
+            finishPhase(phase, SimulationMetrics.Phase.SIMULATE, start);
+            metrics.recordCache(gameBoard.getCacheHits(), gameBoard.getCacheMisses());
+        } catch (Exception e) {
+            events.message(e.getMessage());
+        }
+        phase = PhaseEvent.start();
+        start = metrics.start();
+        events.close();
+        finishPhase(phase, SimulationMetrics.Phase.WRITE, start);
+        if (gameBoard != null) {
+            try {
+                gameBoard.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
-    private static PrintWriter output = new PrintWriter(fileWriter);
-
     /**
-     * Prints a string to the output file.
+     * Reads the board and insects of the scenario without simulating them: from the configured
+     * checkpoint if there is one, otherwise from the input.
      *
-     * @param string The string to be printed.
+     * @return The number of rounds already played.
+     * @throws Exception If the input or the checkpoint is invalid.
      */
-    public static void print(String string) {
-        output.print(string);
+    int load() throws Exception {
+        int completedRounds = 0;
+        if (config.getRestorePath() != null) {
+            Checkpoint checkpoint = Checkpoint.read(config.getRestorePath(), config);
+            gameBoard = checkpoint.getBoard();
+            insects = checkpoint.getInsects();
+            d = gameBoard.getSize();
+            completedRounds = checkpoint.getRound();
+        } else {
+            readInput();
+        }
+        gameBoard.setMetrics(metrics);
+        return completedRounds;
     }
 
     /**
-     * Reads an integer from the input file.
+     * Gets the board read by {@link #load()}.
      *
-     * @return The integer read from the input file.
+     * @return The board, or null if none was read.
      */
-    public static int inputInt() {
-        return INPUT.nextInt();
+    Board getBoard() {
+        return gameBoard;
     }
 
     /**
-     * Reads coordinates (x, y) from the input file and returns an EntityPosition.
+     * Gets the insects read by {@link #load()}, in input order.
      *
-     * @return The EntityPosition representing the coordinates.
-     * @throws InvalidEntityPositionException If the coordinates are invalid.
+     * @return The insects.
      */
-    public static EntityPosition inputCoordinates() throws InvalidEntityPositionException {
-        int x = INPUT.nextInt();
-        int y = INPUT.nextInt();
-        if (x < 1 || x > Main.getD() || y < 1 || y > Main.getD()) {
-            throw new InvalidEntityPositionException();
-        }
-        return new EntityPosition(x, y);
+    List<Insect> getInsects() {
+        return insects;
     }
 
-    /**
-     * Reads a string from the input file.
-     *
-     * @return The string read from the input file.
-     */
-    public static String inputString() {
-        return INPUT.next();
+    private void finishPhase(PhaseEvent event, SimulationMetrics.Phase phase, long start) {
+        metrics.recordPhase(phase, start);
+        event.finish(phase);
     }
-    public static void close() {
-        output.close();
+
+    private void readInput() throws Exception {
+        // Input Section
+        insects = new ArrayList<>();
+        d = io.inputInt();
+        final int mind = 4;
+        if (d < mind || d > config.getMaxBoardSize()) {
+            throw new InvalidBoardException();
+        }
+        io.setBoardSize(d);
+        gameBoard = new Board(BoardStorage.forConfig(d, config), d);
+        n = io.inputInt();
+        final int minn = 1;
+        if (n < minn || n > config.getMaxInsects()) {
+            throw new InvalidNumberOfInsectsException();
+        }
+        m = io.inputInt();
+        final int minm = 1;
+        if (m < minm || m > config.getMaxFoodPoints()) {
+            throw new InvalidNumberOfFoodPointsException();
+        }
+
+        // One bit per (color, species); an unknown species is never a duplicate and fails below
+        BitSet seen = new BitSet(InsectColor.values().length * Insect.TYPES.size());
+        for (int i = 0; i < n; i++) {
+            InsectColor color = InsectColor.toColour(io.inputString());
+            String insectType = io.inputString();
+            EntityPosition coordinates = io.inputCoordinates();
+            int species = Insect.TYPES.indexOf(insectType);
+            if (config.isUniqueInsects() && species >= 0) {
+                int bit = color.ordinal() * Insect.TYPES.size() + species;
+                if (seen.get(bit)) {
+                    throw new DuplicateInsectException();
+                }
+                seen.set(bit);
+            }
+            Insect insect = Insect.create(insectType, coordinates, color);
+            insects.add(insect);
+            gameBoard.addEntity(insect);
+        }
+        for (int i = 0; i < m; i++) {
+            int foodAmount = io.inputInt();
+            EntityPosition cords = io.inputCoordinates();
+            gameBoard.addFood(cords.getX(), cords.getY(), foodAmount);
+        }
+        // End Input Section
     }
 }
 
 /**
- * The EntityPosition class represents the position of an entity on the game board.
+ * The BatchRunner class runs every scenario of a directory in one JVM. Each file named
+ * "input*.txt" is simulated on its own board and I/O context, on a pool bounded by the number
+ * of cores, and its output is written next to it with "input" replaced by "output".
  */
-class EntityPosition {
-    private int x;
-    private int y;
+class BatchRunner {
+    private final SimulationConfig config;
+    private final SimulationMetrics metrics;
 
-    EntityPosition(int x, int y) {
-        this.x = x;
-        this.y = y;
+    /**
+     * Constructs a batch runner.
+     *
+     * @param config  The settings applied to every scenario.
+     * @param metrics The metrics all scenarios count into.
+     */
+    BatchRunner(SimulationConfig config, SimulationMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
     }
 
     /**
-     * Gets the x-coordinate of the position.
+     * Lists the scenario input files of a directory, in name order.
      *
-     * @return The x-coordinate.
+     * @param directory The directory to scan.
+     * @return The input files.
+     * @throws IOException If the directory cannot be listed.
      */
-    public int getX() {
-        return x;
+    public static List<Path> listInputs(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(BatchRunner::isInput).sorted().collect(Collectors.toList());
+        }
     }
 
     /**
-     * Gets the y-coordinate of the position.
+     * Checks whether a file is a scenario input.
      *
-     * @return The y-coordinate.
+     * @param file The file to check.
+     * @return True for regular files named "input*.txt".
      */
-    public int getY() {
-        return y;
+    public static boolean isInput(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith("input") && name.endsWith(".txt") && Files.isRegularFile(file);
     }
 
     /**
-     * Adds another EntityPosition to this position and returns a new EntityPosition.
+     * Gets the output file of a scenario input.
      *
-     * @param other The other EntityPosition to be added.
-     * @return The new EntityPosition after addition.
+     * @param input The input file.
+     * @return The output file next to it.
      */
-    public EntityPosition sum(EntityPosition other) {
-        int newX = x + other.getX();
-        int newY = y + other.getY();
-        return new EntityPosition(newX, newY);
+    public static Path outputFor(Path input) {
+        return input.resolveSibling("output" + input.getFileName().toString().substring("input".length()));
     }
 
-    @Override
-    public String toString() {
-        return Integer.toString(x) + ':' + y;
+    /**
+     * Runs one scenario file.
+     *
+     * @param input The input file.
+     * @throws IOException If the input or output file cannot be opened.
+     */
+    public void runFile(Path input) throws IOException {
+        IOHandler io = IOHandler.open(input, outputFor(input), config.isFastIO());
+        new Scenario(io, config, metrics).run();
     }
-}
-
-/**
- * The FoodPoint class represents a food entity on the game board.
- */
-class FoodPoint extends BoardEntity {
-    protected int value;
 
     /**
-     * Constructs a FoodPoint with the specified position and value.
+     * Runs all scenarios of a directory and waits for them to finish.
+     * Files that cannot be opened are reported on the standard error.
      *
-     * @param position The position of the food entity.
-     * @param value    The value of the food entity.
+     * @param directory The directory holding the inputs.
+     * @return The number of scenarios run.
+     * @throws IOException If the directory cannot be listed.
      */
-    public FoodPoint(EntityPosition position, int value) {
-        this.setEntityPosition(position);
-        this.value = value;
+    public int run(Path directory) throws IOException {
+        List<Path> inputs = listInputs(directory);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Path input : inputs) {
+                results.add(executor.submit(() -> {
+                    runFile(input);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < inputs.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println(inputs.get(i) + ": " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return inputs.size();
     }
 }
 
 /**
- * The BoardEntity class is an abstract class representing an entity on the game board.
+ * The SimulationDaemon class keeps one JVM running and simulates every scenario dropped into an
+ * inbox directory, so start-up and just-in-time compilation are paid once instead of per scenario.
+ * Before watching, it plays a few generated scenarios to compile the hot paths. Inputs named
+ * "input*.txt" that are in the inbox at start or created in it later are simulated in arrival
+ * order. Each output goes to a temporary file in the outbox and is then renamed to its final name
+ * ("input" replaced by "output") atomically, so readers never see a partial output; the input is
+ * deleted afterwards. Inputs should be moved into the inbox complete, for the same reason.
+ * Each file is logged with its latency and the running percentiles; a file named {@link #STOP_FILE}
+ * in the inbox stops the daemon after a summary.
  */
-abstract class BoardEntity {
-    protected EntityPosition entityPosition;
+class SimulationDaemon {
+    /**
+     * The name of the file that stops the daemon when it appears in the inbox.
+     */
+    static final String STOP_FILE = "STOP";
+    private static final int WARMUP_SIZE = 100;
+
+    private final SimulationConfig config;
+    private final SimulationMetrics metrics;
+    private final PrintStream log;
+    private final LatencyHistogram latencies = new LatencyHistogram();
 
     /**
-     * Sets the position of the entity on the game board.
+     * Constructs a daemon.
      *
-     * @param entityPosition The new position of the entity.
+     * @param config  The settings applied to every scenario.
+     * @param metrics The metrics all scenarios count into.
+     * @param log     The stream latencies are reported to.
      */
-    public void setEntityPosition(EntityPosition entityPosition) {
-        this.entityPosition = entityPosition;
+    SimulationDaemon(SimulationConfig config, SimulationMetrics metrics, PrintStream log) {
+        this.config = config;
+        this.metrics = metrics;
+        this.log = log;
     }
-}
-
-/**
- * The InsectColor enum represents the possible colors of insects.
- */
-enum    InsectColor {
-    RED,
-    GREEN,
-    BLUE,
-    YELLOW;
 
     /**
-     * Converts a string to the corresponding InsectColor.
+     * Warms up, then simulates the inputs of the inbox until a stop file appears or the inbox is
+     * removed.
      *
-     * @param s The string representation of the color.
-     * @return The InsectColor.
-     * @throws InvalidInsectColorException If the string is not a valid color.
+     * @param inbox  The directory to watch.
+     * @param outbox The directory to write outputs to, created if missing.
+     * @throws IOException          If the inbox cannot be watched.
+     * @throws InterruptedException If the daemon is interrupted while waiting for files.
      */
-    public static InsectColor toColour(String s) throws InvalidInsectColorException {
-        switch (s) {
-            case "Red" -> {
-                return RED;
-            }
-            case "Green" -> {
-                return GREEN;
-            }
-            case "Blue" -> {
-                return BLUE;
+    public void run(Path inbox, Path outbox) throws IOException, InterruptedException {
+        Files.createDirectories(outbox);
+        warmUp(config.getWarmupRuns());
+        try (WatchService watcher = inbox.getFileSystem().newWatchService()) {
+            inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+            // Files dropped before the watch started; a file also seen as an event is gone by then
+            for (Path input : BatchRunner.listInputs(inbox)) {
+                process(input, outbox);
             }
-            case "Yellow" -> {
-                return YELLOW;
-            }
-            default -> {
-                throw new InvalidInsectColorException();
+            boolean running = !Files.exists(inbox.resolve(STOP_FILE));
+            while (running) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        for (Path input : BatchRunner.listInputs(inbox)) {
+                            process(input, outbox);
+                        }
+                        running &= !Files.exists(inbox.resolve(STOP_FILE));
+                        continue;
+                    }
+                    Path name = (Path) event.context();
+                    if (name.toString().equals(STOP_FILE)) {
+                        running = false;
+                    } else if (BatchRunner.isInput(inbox.resolve(name))) {
+                        process(inbox.resolve(name), outbox);
+                    }
+                }
+                running &= key.reset();
             }
+            Files.deleteIfExists(inbox.resolve(STOP_FILE));
         }
+        log.println("Processed " + latencies.getCount() + " files, latency " + latencies.summary());
     }
 
-    @Override
-    public String toString() {
-        switch (this) {
-            case RED -> {
-                return "Red";
-            }
-            case YELLOW -> {
-                return "Yellow";
-            }
-            case GREEN -> {
-                return "Green";
+    /**
+     * Simulates one input into the outbox and deletes it. Errors, checked or not, are reported on
+     * the standard error and leave the input in place, so one bad file does not stop the daemon.
+     *
+     * @param input  The input file.
+     * @param outbox The directory of the output.
+     */
+    public void process(Path input, Path outbox) {
+        long start = System.nanoTime();
+        Path output = outbox.resolve(BatchRunner.outputFor(input).getFileName());
+        Path partial = outbox.resolve("." + output.getFileName() + ".tmp");
+        try {
+            new Scenario(IOHandler.open(input, partial, config.isFastIO()), config, metrics).run();
+            Files.move(partial, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(input);
+        } catch (IOException | RuntimeException e) {
+            System.err.println(input + ": " + e);
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // The partial output is hidden and replaced when the input is retried
             }
-            case BLUE -> {
-                return "Blue";
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        latencies.record(latency);
+        log.printf("%s %.3f ms (%s)%n", input.getFileName(), latency / 1e6, latencies.summary());
+    }
+
+    private void warmUp(int runs) throws IOException {
+        if (runs <= 0) {
+            return;
+        }
+        Path directory = Files.createTempDirectory("insects-warmup");
+        Path input = directory.resolve("input.txt");
+        Path output = directory.resolve("output.txt");
+        try {
+            long foodCount = new SimulationBenchmark(config, log).writeScenario(input, WARMUP_SIZE, new Random(WARMUP_SIZE));
+            List<String> args = new ArrayList<>(List.of(
+                "--max-board=" + WARMUP_SIZE, "--max-insects=" + config.getBenchmarkInsects(),
+                "--max-food=" + foodCount, "--allow-duplicate-insects", "--rounds=" + config.getRounds()));
+            if (config.isFastIO()) {
+                args.add("--fast-io");
             }
-            default -> {
-                return null;
+            SimulationConfig warmupConfig = SimulationConfig.fromArgs(args.toArray(new String[0]));
+            for (int i = 0; i < runs; i++) {
+                new Scenario(IOHandler.open(input, output, config.isFastIO()), warmupConfig).run();
             }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(directory);
         }
     }
 }
 
 /**
- * The Direction enum represents the possible directions an insect can move.
+ * The LatencyHistogram class records durations in constant memory and time. Values are counted in
+ * buckets that split every power of two into 16 parts, so a percentile is reported within about 6%
+ * of the true value, however many values were recorded.
  */
-enum Direction {
-    N("North"),
-    E("East"),
-    S("South"),
-    W("West"),
-    NE("North-East"),
-    SE("South-East"),
-    SW("South-West"),
-    NW("North-West");
+class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
 
-    private final String textRepresentation;
+    private final long[] counts = new long[(Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
 
-    Direction(String text) {
-        textRepresentation = text;
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
     }
 
     /**
-     * Gets the offset corresponding to the direction.
+     * Records one value.
      *
-     * @return The offset as an EntityPosition.
+     * @param value The value, not negative.
      */
-    public EntityPosition getOffset() {
-        switch (this.textRepresentation) {
-            case "North" -> {
-                return new EntityPosition(-1, 0);
-            }
-            case "East" -> {
-                return new EntityPosition(0, 1);
-            }
-            case "South" -> {
-                return new EntityPosition(1, 0);
-            }
-            case "West" -> {
-                return new EntityPosition(0, -1);
-            }
-            case "North-East" -> {
-                return new EntityPosition(-1, 1);
-            }
-            case "South-East" -> {
-                return new EntityPosition(1, 1);
-            }
-            case "South-West" -> {
-                return new EntityPosition(1, -1);
-            }
-            case "North-West" -> {
-                return new EntityPosition(-1, -1);
-            }
-            default -> {
-                return null;
+    public synchronized void record(long value) {
+        counts[bucket(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets a percentile of the recorded values.
+     *
+     * @param percent The percentile, between 0 and 100.
+     * @return The upper bound of the bucket holding it, at most the largest value, or 0 if none was recorded.
+     */
+    public synchronized long percentile(double percent) {
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
             }
         }
+        return 0;
     }
 
     /**
-     * Calculates the next position based on the current position and the direction.
+     * Formats the median, 90th, 99th percentile and maximum of nanosecond values in milliseconds.
      *
-     * @param curr The current position.
-     * @return The next position after moving in the direction.
+     * @return The summary.
      */
-    public EntityPosition nextPos(EntityPosition curr) {
-        return curr.sum(this.getOffset());
+    public synchronized String summary() {
+        return String.format("p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, max / 1e6);
     }
+}
+
+/**
+ * The VariantExplorer class plays many variants of one scenario to compare them, such as which
+ * order of the insects eats the most food. The board is read once; each variant runs on a
+ * {@link Board#fork()} of it, which shares the unchanged cells, on a pool bounded by the number of
+ * cores. Variant 0 keeps the input order and the others shuffle it. The output of the scenario
+ * receives the food eaten by every variant, followed by the best and worst variants and the mean.
+ * Variants write no moves and no checkpoints.
+ */
+class VariantExplorer {
+    private final SimulationConfig config;
+    private final SimulationMetrics metrics;
 
     /**
-     * Gets a list of orthogonal directions (N, E, S, W).
+     * Constructs an explorer.
      *
-     * @return The list of orthogonal directions.
+     * @param config  The settings of the scenario, including the number of variants.
+     * @param metrics The metrics all variants count into.
      */
-    public static List<Direction> getOrthogonalDirections() {
-        return Arrays.asList(
-                N,
-                E,
-                S,
-                W
-        );
+    VariantExplorer(SimulationConfig config, SimulationMetrics metrics) {
+        this.config = config.withoutCheckpoints();
+        this.metrics = metrics;
     }
 
     /**
-     * Gets a list of diagonal directions (NE, SE, SW, NW).
+     * Reads a scenario, plays its variants and writes the report, then closes the output.
+     * Invalid input is reported through the exception message in the output, as for one run.
      *
-     * @return The list of diagonal directions.
+     * @param io The input and output of the scenario.
      */
-    public static List<Direction> getDiagonalDirections() {
-        return Arrays.asList(
-                NE,
-                SE,
-                SW,
-                NW
-        );
+    public void run(IOHandler io) {
+        Scenario scenario = new Scenario(io, config, metrics);
+        long start = metrics.start();
+        try {
+            int completedRounds = scenario.load();
+            metrics.recordPhase(SimulationMetrics.Phase.PARSE, start);
+            start = metrics.start();
+            List<Result> results = explore(scenario.getBoard(), scenario.getInsects(), completedRounds);
+            metrics.recordPhase(SimulationMetrics.Phase.SIMULATE, start);
+            start = metrics.start();
+            io.print(report(results));
+        } catch (Exception e) {
+            io.print(e.getMessage());
+        }
+        io.close();
+        metrics.recordPhase(SimulationMetrics.Phase.WRITE, start);
+        if (scenario.getBoard() != null) {
+            try {
+                scenario.getBoard().close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
-     * Gets a list of all directions (N, E, S, W, NE, SE, SW, NW).
+     * Plays all variants on forks of a board and waits for them to finish.
      *
-     * @return The list of all directions.
+     * @param board           The board, left unchanged.
+     * @param insects         The insects of the board in input order.
+     * @param completedRounds The number of rounds the board has already played.
+     * @return The results in variant order.
+     * @throws Exception If a variant fails.
      */
-    public static List<Direction> getAllDirections() {
-        return Arrays.asList(
-                N,
-                E,
-                S,
-                W,
-                NE,
-                SE,
-                SW,
-                NW
-        );
+    public List<Result> explore(Board board, List<Insect> insects, int completedRounds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int v = 0; v < config.getExploreVariants(); v++) {
+                int[] order = ordering(insects.size(), v);
+                int variant = v;
+                futures.add(executor.submit(() -> play(board, insects, variant, order, completedRounds)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
     }
 
-    @Override
-    public String toString() {
-        return textRepresentation;
+    private int[] ordering(int count, int variant) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            order.add(i);
+        }
+        if (variant > 0) {
+            Collections.shuffle(order, new Random(config.getExploreSeed() * 31 + variant));
+        }
+        return order.stream().mapToInt(Integer::intValue).toArray();
     }
-}
 
-/**
- * An interface representing movement in orthogonal directions on a board.
- */
-interface OrthogonalMoving {
+    private Result play(Board board, List<Insect> insects, int variant, int[] order, int completedRounds)
+            throws IOException {
+        Board fork = board.fork();
+        try {
+            List<Insect> moving = new ArrayList<>(order.length);
+            for (int i : order) {
+                moving.add((Insect) fork.getEntity(insects.get(i).entityPosition));
+            }
+            MoveTally tally = new MoveTally();
+            Simulation simulation = new Simulation(fork, moving, config, tally);
+            simulation.resumeAfter(completedRounds);
+            simulation.run();
+            return new Result(variant, order, tally.getEaten(), tally.getMoves());
+        } finally {
+            fork.close();
+        }
+    }
+
+    /**
+     * Formats the results: one line per variant, then the best variant with its order of the
+     * insects (numbered from 1 in input order), the worst variant and the mean.
+     *
+     * @param results The results in variant order.
+     * @return The report.
+     */
+    public static String report(List<Result> results) {
+        StringBuilder report = new StringBuilder();
+        Result best = results.get(0);
+        Result worst = results.get(0);
+        long total = 0;
+        for (Result result : results) {
+            report.append("Variant ").append(result.variant).append(": ").append(result.eaten)
+                    .append(" eaten in ").append(result.moves).append(" moves\n");
+            if (result.eaten > best.eaten) {
+                best = result;
+            }
+            if (result.eaten < worst.eaten) {
+                worst = result;
+            }
+            total += result.eaten;
+        }
+        report.append("Best: variant ").append(best.variant).append(", ").append(best.eaten).append(" eaten, order");
+        for (int i : best.order) {
+            report.append(' ').append(i + 1);
+        }
+        report.append("\nWorst: variant ").append(worst.variant).append(", ").append(worst.eaten).append(" eaten");
+        report.append("\nMean: ").append(String.format("%.2f", (double) total / results.size())).append(" eaten");
+        return report.toString();
+    }
+
+    /**
+     * The outcome of one variant.
+     */
+    static final class Result {
+        final int variant;
+        final int[] order;
+        final long eaten;
+        final int moves;
+
+        Result(int variant, int[] order, long eaten, int moves) {
+            this.variant = variant;
+            this.order = order;
+            this.eaten = eaten;
+            this.moves = moves;
+        }
+    }
+}
+
+/**
+ * A sink that writes nothing and only totals the moves and the food eaten.
+ */
+class MoveTally implements MoveEventSink {
+    private long eaten;
+    private int moves;
+
+    public long getEaten() {
+        return eaten;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    @Override
+    public void round(int round) {
+    }
+
+    @Override
+    public void move(InsectColor color, int species, Direction direction, int eaten, int round) {
+        this.eaten += eaten;
+        moves++;
+    }
+
+    @Override
+    public void message(String message) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
+
+/**
+ * The SimulationBenchmark class measures the hot paths of the simulation inside the running JVM.
+ * Each benchmark is warmed up and then timed over several iterations. Besides the time per operation
+ * it reports the bytes allocated per operation and the allocation rate, taken from the per-thread
+ * allocation counter of the JVM. Board sizes, food density and insect count are parameters, so a
+ * storage or indexing change can be compared against an earlier run with the same parameters.
+ */
+class SimulationBenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int SAMPLES = 4096;
+    private static final long MAX_FOOD_POINTS = 2_000_000;
+    private static final String[] SPECIES = {"Butterfly", "Ant", "Spider", "Grasshopper"};
+
+    private final SimulationConfig config;
+    private final PrintStream out;
+    private long sink;
+
+    /**
+     * A timed operation. It returns a value derived from its work, so the work cannot be optimized away.
+     */
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    /**
+     * Prepares a fresh operation for each iteration; the preparation is not timed.
+     */
+    interface Fixture {
+        Operation prepare() throws Exception;
+    }
+
+    /**
+     * Constructs a benchmark run.
+     *
+     * @param config The settings holding the benchmark parameters.
+     * @param out    The stream the report is printed to.
+     */
+    SimulationBenchmark(SimulationConfig config, PrintStream out) {
+        this.config = config;
+        this.out = out;
+    }
+
+    /**
+     * Runs every benchmark for every configured board size and prints one line per result.
+     *
+     * @throws Exception If a benchmark fails.
+     */
+    public void run() throws Exception {
+        out.printf("%-32s %8s %12s %10s %10s%n", "benchmark", "d", "ns/op", "B/op", "MB/s");
+        for (int size : config.getBenchmarkSizes()) {
+            runBoardBenchmarks(size);
+            runInsectBenchmarks(size);
+            runScenarioBenchmark(size);
+        }
+        if (sink == 42) {
+            out.println();
+        }
+    }
+
+    private void runBoardBenchmarks(int size) throws Exception {
+        Board board = populate(size, new Random(size));
+        int[] xs = new int[SAMPLES];
+        int[] ys = new int[SAMPLES];
+        Random random = new Random(size + 1);
+        for (int i = 0; i < SAMPLES; i++) {
+            xs[i] = random.nextInt(size) + 1;
+            ys[i] = random.nextInt(size) + 1;
+        }
+        measure("Board.getEntity", size, SAMPLES, () -> () -> {
+            long found = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                if (board.getEntity(xs[i], ys[i]) != null) {
+                    found++;
+                }
+            }
+            return found;
+        });
+        measure("Board.getFoodInRectangle", size, SAMPLES, () -> () -> {
+            long food = 0;
+            for (int i = 0; i + 1 < SAMPLES; i++) {
+                food += board.getFoodInRectangle(xs[i], ys[i], xs[i + 1], ys[i + 1]);
+            }
+            return food;
+        });
+        measure("Board.addEntity+erase", size, SAMPLES, () -> {
+            Board fresh = populate(size, new Random(size));
+            List<FoodPoint> foods = new ArrayList<>();
+            for (int i = 0; i < SAMPLES; i++) {
+                if (fresh.getEntity(xs[i], ys[i]) == null) {
+                    foods.add(new FoodPoint(new EntityPosition(xs[i], ys[i]), 1));
+                }
+            }
+            return () -> {
+                for (FoodPoint food : foods) {
+                    if (fresh.getEntity(food.entityPosition) == null) {
+                        fresh.addEntity(food);
+                        fresh.erase(food.entityPosition);
+                    }
+                }
+                return foods.size();
+            };
+        });
+    }
+
+    private void runInsectBenchmarks(int size) throws Exception {
+        Board board = populate(size, new Random(size));
+        for (String species : SPECIES) {
+            List<Insect> probes = probes(species, size, new Random(size + 2));
+            measure(species + ".getBestDirection", size, probes.size(), () -> () -> {
+                long ordinals = 0;
+                for (Insect insect : probes) {
+                    ordinals += insect.getBestDirection(board).ordinal();
+                }
+                return ordinals;
+            });
+        }
+        List<Insect> butterflies = probes("Butterfly", size, new Random(size + 3));
+        measure("travelOrthogonally", size, butterflies.size(), () -> {
+            Board fresh = populate(size, new Random(size));
+            return () -> {
+                long eaten = 0;
+                int i = 0;
+                for (Insect insect : butterflies) {
+                    Direction dir = Direction.getOrthogonalDirections().get(i++ & 3);
+                    eaten += ((Butterfly) insect).travelOrthogonally(dir, insect.entityPosition, insect.color, fresh);
+                }
+                return eaten;
+            };
+        });
+        List<Insect> spiders = probes("Spider", size, new Random(size + 4));
+        measure("travelDiagonally", size, spiders.size(), () -> {
+            Board fresh = populate(size, new Random(size));
+            return () -> {
+                long eaten = 0;
+                int i = 0;
+                for (Insect insect : spiders) {
+                    Direction dir = Direction.getDiagonalDirections().get(i++ & 3);
+                    eaten += ((Spider) insect).travelDiagonally(dir, insect.entityPosition, insect.color, fresh);
+                }
+                return eaten;
+            };
+        });
+    }
+
+    private void runScenarioBenchmark(int size) throws Exception {
+        Path directory = Files.createTempDirectory("insects-bench");
+        Path input = directory.resolve("input.txt");
+        Path output = directory.resolve("output.txt");
+        long foodCount = writeScenario(input, size, new Random(size + 5));
+        SimulationConfig scenarioConfig = SimulationConfig.fromArgs(new String[] {
+            "--max-board=" + size, "--max-insects=" + config.getBenchmarkInsects(),
+            "--max-food=" + foodCount, "--allow-duplicate-insects", "--fast-io"
+        });
+        try {
+            measure("Main end-to-end", size, 1, () -> () -> {
+                new Scenario(IOHandler.open(input, output, true), scenarioConfig).run();
+                return Files.size(output);
+            });
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private void measure(String name, int size, int operations, Fixture fixture) throws Exception {
+        long time = 0;
+        long allocated = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            Operation operation = fixture.prepare();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            sink += operation.run();
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+            if (i >= WARMUP_ITERATIONS) {
+                time += elapsed;
+                allocated += allocatedAfter - allocatedBefore;
+            }
+        }
+        double count = (double) MEASURED_ITERATIONS * Math.max(operations, 1);
+        double rate = time == 0 ? 0 : allocated / (time / 1e9) / 1e6;
+        out.printf("%-32s %8d %12.1f %10.1f %10.1f%n", name, size, time / count, allocated / count, rate);
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private long foodCount(int size) {
+        return Math.max(1, Math.min(MAX_FOOD_POINTS, (long) (config.getBenchmarkDensity() * size * size)));
+    }
+
+    private Board populate(int size, Random random) throws TwoEntitiesOnSamePositionException {
+        Board board = new Board(size);
+        long foodCount = foodCount(size);
+        for (long placed = 0; placed < foodCount; ) {
+            int x = random.nextInt(size) + 1;
+            int y = random.nextInt(size) + 1;
+            if (board.getEntity(x, y) == null) {
+                board.addEntity(new FoodPoint(new EntityPosition(x, y), random.nextInt(100) + 1));
+                placed++;
+            }
+        }
+        return board;
+    }
+
+    private List<Insect> probes(String species, int size, Random random) {
+        List<Insect> insects = new ArrayList<>();
+        for (int i = 0; i < config.getBenchmarkInsects(); i++) {
+            EntityPosition position = new EntityPosition(random.nextInt(size) + 1, random.nextInt(size) + 1);
+            InsectColor color = InsectColor.values()[i % InsectColor.values().length];
+            Insect insect;
+            switch (species) {
+                case "Butterfly" -> insect = new Butterfly(position, color);
+                case "Ant" -> insect = new Ant(position, color);
+                case "Spider" -> insect = new Spider(position, color);
+                default -> insect = new Grasshopper(position, color);
+            }
+            insect.setInsectType(species);
+            insects.add(insect);
+        }
+        return insects;
+    }
+
+    /**
+     * Writes a random scenario with the configured insect count and food density.
+     *
+     * @param input  The file to write.
+     * @param size   The size of the board.
+     * @param random The source of the positions and values.
+     * @return The number of food points written.
+     * @throws IOException If the file cannot be written.
+     */
+    long writeScenario(Path input, int size, Random random) throws IOException {
+        int insects = config.getBenchmarkInsects();
+        long foodCount = Math.min(foodCount(size), (long) size * size - insects);
+        Set<Long> used = new HashSet<>();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(input))) {
+            writer.println(size);
+            writer.println(insects);
+            writer.println(foodCount);
+            for (int i = 0; i < insects + foodCount; i++) {
+                int x;
+                int y;
+                do {
+                    x = random.nextInt(size) + 1;
+                    y = random.nextInt(size) + 1;
+                } while (!used.add(SparseBoardStorage.pack(x, y)));
+                if (i < insects) {
+                    writer.println(InsectColor.values()[i % 4] + " " + SPECIES[(i / 4) % 4] + " " + x + " " + y);
+                } else {
+                    writer.println((random.nextInt(100) + 1) + " " + x + " " + y);
+                }
+            }
+        }
+        return foodCount;
+    }
+}
+
+/**
+ * The SimulationConfig class holds the input limits and the round settings of a run.
+ * The defaults reproduce the original single-move game.
+ */
+class SimulationConfig implements Cloneable {
+    private int maxBoardSize = 1000;
+    private int maxInsects = 16;
+    private int maxFoodPoints = 200;
+    private boolean uniqueInsects = true;
+    private int rounds = 1;
+    private boolean perRoundOutput;
+    private boolean parallel;
+    private boolean concurrentMoves;
+    private ConflictRule conflictRule = ConflictRule.SEQUENTIAL;
+    private boolean fastIO;
+    private OutputFormat outputFormat = OutputFormat.TEXT;
+    private boolean asyncOutput;
+    private int outputBuffer = 4096;
+    private boolean offHeap;
+    private Path offHeapDirectory;
+    private Path batchDirectory;
+    private Path checkpointPath;
+    private int checkpointInterval = 1;
+    private Path restorePath;
+    private Path daemonInbox;
+    private Path daemonOutbox;
+    private int warmupRuns = 10;
+    private int exploreVariants;
+    private long exploreSeed = 1;
+    private boolean benchmark;
+    private int[] benchmarkSizes = {100, 1000, 10000};
+    private double benchmarkDensity = 0.01;
+    private int benchmarkInsects = 64;
+    private boolean metrics;
+
+    /**
+     * Builds a configuration from command line arguments. Recognized options are
+     * "--max-board=D", "--max-insects=N", "--max-food=M", "--allow-duplicate-insects",
+     * "--rounds=R", "--per-round", "--parallel", "--concurrent-moves", "--conflict=RULE",
+     * "--fast-io", "--output-format=FORMAT", "--async-output", "--output-buffer=N", "--off-heap",
+     * "--off-heap-dir=DIR", "--batch=DIR", "--daemon=DIR", "--outbox=DIR", "--warmup=N", "--checkpoint=FILE",
+     * "--checkpoint-every=K", "--restore=FILE", "--explore=K", "--explore-seed=S", "--metrics", and "--bench" with
+     * "--bench-sizes=D1,D2,...", "--bench-density=F" and "--bench-insects=N"; other arguments
+     * are ignored.
+     *
+     * @param args The command line arguments.
+     * @return The configuration.
+     */
+    public static SimulationConfig fromArgs(String[] args) {
+        SimulationConfig config = new SimulationConfig();
+        for (String arg : args) {
+            if (arg.startsWith("--max-board=")) {
+                config.maxBoardSize = Integer.parseInt(arg.substring("--max-board=".length()));
+            } else if (arg.startsWith("--max-insects=")) {
+                config.maxInsects = Integer.parseInt(arg.substring("--max-insects=".length()));
+            } else if (arg.startsWith("--max-food=")) {
+                config.maxFoodPoints = Integer.parseInt(arg.substring("--max-food=".length()));
+            } else if (arg.equals("--allow-duplicate-insects")) {
+                config.uniqueInsects = false;
+            } else if (arg.startsWith("--rounds=")) {
+                config.rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+            } else if (arg.equals("--per-round")) {
+                config.perRoundOutput = true;
+            } else if (arg.equals("--parallel")) {
+                config.parallel = true;
+            } else if (arg.equals("--concurrent-moves")) {
+                config.concurrentMoves = true;
+            } else if (arg.startsWith("--conflict=")) {
+                config.conflictRule = ConflictRule.fromString(arg.substring("--conflict=".length()));
+            } else if (arg.equals("--fast-io")) {
+                config.fastIO = true;
+            } else if (arg.startsWith("--output-format=")) {
+                config.outputFormat = OutputFormat.fromString(arg.substring("--output-format=".length()));
+            } else if (arg.equals("--async-output")) {
+                config.asyncOutput = true;
+            } else if (arg.startsWith("--output-buffer=")) {
+                config.outputBuffer = Integer.parseInt(arg.substring("--output-buffer=".length()));
+            } else if (arg.equals("--off-heap")) {
+                config.offHeap = true;
+            } else if (arg.startsWith("--off-heap-dir=")) {
+                config.offHeap = true;
+                config.offHeapDirectory = Path.of(arg.substring("--off-heap-dir=".length()));
+            } else if (arg.startsWith("--batch=")) {
+                config.batchDirectory = Path.of(arg.substring("--batch=".length()));
+            } else if (arg.startsWith("--daemon=")) {
+                config.daemonInbox = Path.of(arg.substring("--daemon=".length()));
+            } else if (arg.startsWith("--outbox=")) {
+                config.daemonOutbox = Path.of(arg.substring("--outbox=".length()));
+            } else if (arg.startsWith("--warmup=")) {
+                config.warmupRuns = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--checkpoint=")) {
+                config.checkpointPath = Path.of(arg.substring("--checkpoint=".length()));
+            } else if (arg.startsWith("--checkpoint-every=")) {
+                config.checkpointInterval = Integer.parseInt(arg.substring("--checkpoint-every=".length()));
+            } else if (arg.startsWith("--restore=")) {
+                config.restorePath = Path.of(arg.substring("--restore=".length()));
+            } else if (arg.startsWith("--explore=")) {
+                config.exploreVariants = Integer.parseInt(arg.substring("--explore=".length()));
+            } else if (arg.startsWith("--explore-seed=")) {
+                config.exploreSeed = Long.parseLong(arg.substring("--explore-seed=".length()));
+            } else if (arg.equals("--bench")) {
+                config.benchmark = true;
+            } else if (arg.startsWith("--bench-sizes=")) {
+                config.benchmarkSizes = Arrays.stream(arg.substring("--bench-sizes=".length()).split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--bench-density=")) {
+                config.benchmarkDensity = Double.parseDouble(arg.substring("--bench-density=".length()));
+            } else if (arg.startsWith("--bench-insects=")) {
+                config.benchmarkInsects = Integer.parseInt(arg.substring("--bench-insects=".length()));
+            } else if (arg.equals("--metrics")) {
+                config.metrics = true;
+            }
+        }
+        return config;
+    }
+
+    public int getMaxBoardSize() {
+        return maxBoardSize;
+    }
+
+    public int getMaxInsects() {
+        return maxInsects;
+    }
+
+    public int getMaxFoodPoints() {
+        return maxFoodPoints;
+    }
+
+    /**
+     * Checks whether two insects of the same color and type are rejected.
+     * At most 16 insects can be unique, so large populations need this switched off.
+     *
+     * @return True if duplicate insects are an error.
+     */
+    public boolean isUniqueInsects() {
+        return uniqueInsects;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public boolean isPerRoundOutput() {
+        return perRoundOutput;
+    }
+
+    /**
+     * Checks whether best directions are evaluated on all cores before the moves of a round.
+     *
+     * @return True for parallel evaluation.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Checks whether insects whose moves do not interfere travel at the same time.
+     *
+     * @return True for concurrent moves.
+     */
+    public boolean isConcurrentMoves() {
+        return concurrentMoves;
+    }
+
+    /**
+     * Gets the rule that orders conflicting moves in concurrent mode.
+     *
+     * @return The conflict rule, sequential by default.
+     */
+    public ConflictRule getConflictRule() {
+        return conflictRule;
+    }
+
+    /**
+     * Checks whether the byte-level reader and writer are used instead of Scanner and PrintWriter.
+     *
+     * @return True for fast I/O.
+     */
+    public boolean isFastIO() {
+        return fastIO || outputFormat == OutputFormat.BINARY;
+    }
+
+    /**
+     * Gets the encoding of the moves written. Binary output implies fast I/O.
+     *
+     * @return The output format, text by default.
+     */
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Checks whether moves are encoded and written by a writer thread instead of the simulation.
+     *
+     * @return True for asynchronous output.
+     */
+    public boolean isAsyncOutput() {
+        return asyncOutput;
+    }
+
+    /**
+     * Gets the number of move events the asynchronous writer buffers before the simulation waits.
+     *
+     * @return The capacity of the ring buffer.
+     */
+    public int getOutputBuffer() {
+        return outputBuffer;
+    }
+
+    /**
+     * Checks whether boards keep their cells outside the Java heap.
+     *
+     * @return True for off-heap boards.
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Gets the directory of the files backing off-heap boards.
+     *
+     * @return The directory, or null to keep off-heap boards in direct memory.
+     */
+    public Path getOffHeapDirectory() {
+        return offHeapDirectory;
+    }
+
+    /**
+     * Gets the directory of scenarios to run in batch mode.
+     *
+     * @return The batch directory, or null to run the single input.txt.
+     */
+    public Path getBatchDirectory() {
+        return batchDirectory;
+    }
+
+    /**
+     * Gets the inbox directory watched in daemon mode.
+     *
+     * @return The inbox, or null to run once and exit.
+     */
+    public Path getDaemonInbox() {
+        return daemonInbox;
+    }
+
+    /**
+     * Gets the directory the daemon writes outputs to.
+     *
+     * @return The outbox, by default the directory "outbox" next to the inbox.
+     */
+    public Path getDaemonOutbox() {
+        if (daemonOutbox == null && daemonInbox != null) {
+            return daemonInbox.toAbsolutePath().resolveSibling("outbox");
+        }
+        return daemonOutbox;
+    }
+
+    /**
+     * Gets the number of generated scenarios the daemon plays before it watches its inbox.
+     *
+     * @return The number of warm-up runs.
+     */
+    public int getWarmupRuns() {
+        return warmupRuns;
+    }
+
+    /**
+     * Gets the file the simulation state is saved to between rounds.
+     *
+     * @return The checkpoint file, or null to save nothing.
+     */
+    public Path getCheckpointPath() {
+        return checkpointPath;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Gets the checkpoint a scenario resumes from instead of reading its input.
+     *
+     * @return The checkpoint file, or null to read the input.
+     */
+    public Path getRestorePath() {
+        return restorePath;
+    }
+
+    /**
+     * Gets the number of insect orderings played on forks of the input board instead of one run.
+     * The first is the input order, the others are shuffled.
+     *
+     * @return The number of variants, or 0 to simulate the input once.
+     */
+    public int getExploreVariants() {
+        return exploreVariants;
+    }
+
+    /**
+     * Gets the seed the shuffled orderings of the explored variants derive from.
+     *
+     * @return The seed.
+     */
+    public long getExploreSeed() {
+        return exploreSeed;
+    }
+
+    /**
+     * Copies the configuration without the checkpoint file, for runs that must not save state.
+     *
+     * @return The copy.
+     */
+    public SimulationConfig withoutCheckpoints() {
+        try {
+            SimulationConfig copy = (SimulationConfig) clone();
+            copy.checkpointPath = null;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Checks whether the benchmarks run instead of a scenario.
+     *
+     * @return True for benchmark mode.
+     */
+    public boolean isBenchmark() {
+        return benchmark;
+    }
+
+    public int[] getBenchmarkSizes() {
+        return benchmarkSizes;
+    }
+
+    /**
+     * Gets the fraction of cells holding food on benchmark boards.
+     *
+     * @return The food density.
+     */
+    public double getBenchmarkDensity() {
+        return benchmarkDensity;
+    }
+
+    public int getBenchmarkInsects() {
+        return benchmarkInsects;
+    }
+
+    /**
+     * Checks whether the simulation counters are collected and summarized on the standard error.
+     * Flight recorder events do not depend on this; they are on whenever a recording is.
+     *
+     * @return True to collect metrics.
+     */
+    public boolean isMetrics() {
+        return metrics;
+    }
+}
+
+/**
+ * The Simulation class moves the insects over the board round by round.
+ * With a single round every insect leaves the board after its travel, as in the original game.
+ * With more rounds each insect lands on the last free cell it reached and moves again next round.
+ * A round costs one best-direction query and one travel per insect, independent of the board area.
+ * In parallel mode the best directions of a round are computed up front on the ForkJoinPool against
+ * the unmodified board, then the moves are committed in input order; an insect whose lines lost food
+ * to an earlier mover is re-evaluated, so the output is identical to the sequential run.
+ * With concurrent moves the insects also travel at the same time, in waves of moves that do not
+ * interfere; the {@link ConflictRule} decides which insects make up a wave.
+ */
+class Simulation {
+    private final Board board;
+    private final List<Insect> insects;
+    private final SimulationConfig config;
+    private final MoveEventSink events;
+    private final SimulationMetrics metrics;
+    private int round;
+
+    /**
+     * Constructs a simulation over a populated board.
+     *
+     * @param board   The board holding the insects and food.
+     * @param insects The insects in the order they move.
+     * @param config  The round settings.
+     * @param events  The destination of the moves.
+     */
+    public Simulation(Board board, List<Insect> insects, SimulationConfig config, MoveEventSink events) {
+        this.board = board;
+        this.insects = insects;
+        this.config = config;
+        this.events = events;
+        this.metrics = board.getMetrics();
+    }
+
+    /**
+     * Gets the number of the round being played, or the last one played.
+     *
+     * @return The current round number, starting from 1.
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * Continues a simulation restored from a checkpoint: the next round played is the one after.
+     *
+     * @param completedRounds The number of rounds already played.
+     */
+    public void resumeAfter(int completedRounds) {
+        round = completedRounds;
+    }
+
+    /**
+     * Plays all configured rounds, emitting one event per move.
+     * If a checkpoint file is configured, the state is saved to it every configured number of
+     * rounds and after the last one.
+     *
+     * @throws IOException If a checkpoint cannot be written.
+     */
+    public void run() throws IOException {
+        while (round < config.getRounds()) {
+            round++;
+            if (config.isPerRoundOutput()) {
+                events.round(round);
+            }
+            if (config.isConcurrentMoves()) {
+                playConcurrentRound();
+            } else if (config.isParallel()) {
+                playParallelRound();
+            } else {
+                for (Insect insect : insects) {
+                    Direction dir = evaluate(insect);
+                    emit(insect, dir, move(insect, dir));
+                }
+            }
+            Path checkpoint = config.getCheckpointPath();
+            if (checkpoint != null && (round % config.getCheckpointInterval() == 0 || round == config.getRounds())) {
+                Checkpoint.write(checkpoint, board, insects, round);
+            }
+        }
+    }
+
+    private void playParallelRound() {
+        int count = insects.size();
+        long[] stamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            stamps[i] = board.getLineStamp(insects.get(i).entityPosition);
+        }
+        board.beginConcurrentReads();
+        Direction[] directions = new Direction[count];
+        try {
+            Arrays.parallelSetAll(directions, i -> evaluate(insects.get(i)));
+        } finally {
+            board.endConcurrentReads();
+        }
+        for (int i = 0; i < count; i++) {
+            Insect insect = insects.get(i);
+            Direction dir = directions[i];
+            if (board.getLineStamp(insect.entityPosition) != stamps[i]) {
+                dir = evaluate(insect);
+            }
+            emit(insect, dir, move(insect, dir));
+        }
+    }
+
+    private void playConcurrentRound() {
+        MoveFootprint[] footprints = new MoveFootprint[insects.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < insects.size(); i++) {
+            pending.add(i);
+        }
+        while (!pending.isEmpty()) {
+            plan(pending, footprints);
+            Set<Long> readLines = new HashSet<>();
+            Set<Long> writtenLines = new HashSet<>();
+            List<Integer> wave = new ArrayList<>();
+            List<Integer> deferred = new ArrayList<>();
+            for (int i : pending) {
+                boolean blocked = !deferred.isEmpty() && config.getConflictRule() == ConflictRule.SEQUENTIAL;
+                if (blocked || footprints[i].conflictsWith(readLines, writtenLines)) {
+                    deferred.add(i);
+                } else {
+                    wave.add(i);
+                    footprints[i].addTo(readLines, writtenLines);
+                }
+            }
+            int[] eaten = new int[wave.size()];
+            board.beginConcurrentMoves();
+            try {
+                Arrays.parallelSetAll(eaten, k -> move(insects.get(wave.get(k)), footprints[wave.get(k)].getDirection()));
+            } finally {
+                board.endConcurrentMoves();
+            }
+            for (int k = 0; k < eaten.length; k++) {
+                emit(insects.get(wave.get(k)), footprints[wave.get(k)].getDirection(), eaten[k]);
+            }
+            // Plans that read a line the wave wrote are stale
+            for (int i : deferred) {
+                if (footprints[i].readsAny(writtenLines)) {
+                    footprints[i] = null;
+                }
+            }
+            pending = deferred;
+        }
+    }
+
+    private void plan(List<Integer> pending, MoveFootprint[] footprints) {
+        List<Integer> unplanned = new ArrayList<>();
+        for (int i : pending) {
+            if (footprints[i] == null) {
+                unplanned.add(i);
+            }
+        }
+        board.beginConcurrentReads();
+        try {
+            unplanned.parallelStream().forEach(i -> {
+                Insect insect = insects.get(i);
+                footprints[i] = MoveFootprint.of(board, insect, evaluate(insect), config.getRounds() > 1);
+            });
+        } finally {
+            board.endConcurrentReads();
+        }
+    }
+
+    /**
+     * Moves one insect in a direction and updates its position.
+     *
+     * @param insect The insect to move.
+     * @param dir    The direction the insect chose.
+     * @return The value of the food the insect ate.
+     */
+    public int move(Insect insect, Direction dir) {
+        TurnEvent event = TurnEvent.start();
+        long start = metrics.start();
+        EntityPosition startPosition = insect.entityPosition;
+        int eaten;
+        if (config.getRounds() == 1) {
+            eaten = insect.travelDirection(dir, board);
+            board.erase(startPosition);
+        } else {
+            EntityPosition endPosition = board.getTravelEnd(startPosition, dir, insect.getStride(), insect.color);
+            eaten = insect.travelDirection(dir, board);
+            board.moveEntity(insect, endPosition);
+        }
+        metrics.recordMove(insect, start);
+        event.finish(insect, dir, round, eaten);
+        return eaten;
+    }
+
+    private Direction evaluate(Insect insect) {
+        long start = metrics.start();
+        Direction dir = insect.getBestDirection(board);
+        metrics.recordEvaluation(insect, start);
+        return dir;
+    }
+
+    private void emit(Insect insect, Direction dir, int eaten) {
+        events.move(insect.color, Insect.TYPES.indexOf(insect.getInsectType()), dir, eaten, round);
+    }
+}
+
+/**
+ * The ConflictRule enum lists how concurrent moves are grouped into waves. Two moves conflict
+ * when one writes a cell on a line the other reads.
+ */
+enum ConflictRule {
+    /**
+     * A wave is the longest run of insects, in moving order, that do not conflict with each other.
+     * The result is the same as moving the insects one after another.
+     */
+    SEQUENTIAL,
+    /**
+     * A wave takes every insect, in moving order, that conflicts with none already in it;
+     * the others wait for a later wave. Insects may overtake earlier ones they are not blocked by.
+     */
+    EAGER;
+
+    /**
+     * Parses a rule name, case-insensitively.
+     *
+     * @param name The name of the rule.
+     * @return The rule.
+     * @throws IllegalArgumentException If there is no rule of that name.
+     */
+    public static ConflictRule fromString(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
+
+/**
+ * The MoveFootprint class holds the planned move of one insect and the lines it touches. A move
+ * reads the four lines through the cell of the insect: its best direction looks along them and
+ * its travel runs along one of them. It writes the cells it leaves, lands on and eats food from,
+ * which changes every line through those cells. Lines are keyed by family and id.
+ */
+class MoveFootprint {
+    private final Direction direction;
+    private final long[] reads;
+    private final long[] writes;
+
+    private MoveFootprint(Direction direction, long[] reads, long[] writes) {
+        this.direction = direction;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * Plans the move of an insect against the current board.
+     *
+     * @param board     The board.
+     * @param insect    The insect.
+     * @param direction The direction the insect chose.
+     * @param lands     True if the insect stays on the board after travelling.
+     * @return The footprint of the move.
+     */
+    public static MoveFootprint of(Board board, Insect insect, Direction direction, boolean lands) {
+        EntityPosition start = insect.entityPosition;
+        int size = board.getSize();
+        long[] food = board.getTravelFood(start, direction, insect.getStride(), insect.color);
+        Set<Long> writes = new HashSet<>();
+        addLines(writes, start.getX(), start.getY(), size);
+        if (lands) {
+            EntityPosition end = board.getTravelEnd(start, direction, insect.getStride(), insect.color);
+            addLines(writes, end.getX(), end.getY(), size);
+        }
+        for (long cell : food) {
+            addLines(writes, (int) (cell >>> 32), (int) cell, size);
+        }
+        Set<Long> reads = new HashSet<>();
+        addLines(reads, start.getX(), start.getY(), size);
+        return new MoveFootprint(direction, toArray(reads), toArray(writes));
+    }
+
+    private static void addLines(Set<Long> keys, int x, int y, int size) {
+        for (BoardLine line : BoardLine.values()) {
+            keys.add(((long) line.lineOf(x, y, size) << 2) | line.ordinal());
+        }
+    }
+
+    private static long[] toArray(Set<Long> keys) {
+        return keys.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Checks whether this move conflicts with the moves of a wave.
+     *
+     * @param readLines    The lines read by the wave.
+     * @param writtenLines The lines written by the wave.
+     * @return True if this move writes a line the wave reads or reads a line the wave writes.
+     */
+    public boolean conflictsWith(Set<Long> readLines, Set<Long> writtenLines) {
+        return readsAny(writtenLines) || containsAny(readLines, writes);
+    }
+
+    /**
+     * Checks whether this move reads any of the given lines.
+     *
+     * @param lines The lines.
+     * @return True if a line of the move is among them.
+     */
+    public boolean readsAny(Set<Long> lines) {
+        return containsAny(lines, reads);
+    }
+
+    private static boolean containsAny(Set<Long> lines, long[] keys) {
+        for (long key : keys) {
+            if (lines.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the lines of this move to those of a wave.
+     *
+     * @param readLines    The lines read by the wave.
+     * @param writtenLines The lines written by the wave.
+     */
+    public void addTo(Set<Long> readLines, Set<Long> writtenLines) {
+        for (long key : reads) {
+            readLines.add(key);
+        }
+        for (long key : writes) {
+            writtenLines.add(key);
+        }
+    }
+}
+
+/**
+ * The SimulationMetrics class counts what the simulation does: best-direction queries and the
+ * rays and cells they cover, board lookups, travels and the food eaten, time per species and per
+ * phase of a scenario. Counters are LongAdders, so concurrent scenarios and parallel evaluation
+ * may share one instance. The {@link #DISABLED} instance records nothing and reads no clock.
+ */
+class SimulationMetrics {
+    /**
+     * The phases of a scenario.
+     */
+    enum Phase {
+        PARSE("parse"),
+        SIMULATE("simulate"),
+        WRITE("write");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * The metrics of a run that does not collect any.
+     */
+    static final SimulationMetrics DISABLED = new SimulationMetrics(false);
+
+    private final boolean enabled;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder rays = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder travels = new LongAdder();
+    private final LongAdder blockedTravels = new LongAdder();
+    private final LongAdder foodEaten = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder[] speciesTurns = adders(Insect.TYPES.size());
+    private final LongAdder[] speciesNanos = adders(Insect.TYPES.size());
+    private final LongAdder[] phaseNanos = adders(PHASES.length);
+
+    /**
+     * Constructs empty metrics that collect.
+     */
+    SimulationMetrics() {
+        this(true);
+    }
+
+    private SimulationMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing something.
+     *
+     * @return The current time in nanoseconds, or 0 when disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records one visible-food query.
+     *
+     * @param cellsCovered The number of cells on the ray, which a cell-by-cell scan would visit.
+     */
+    public void recordRay(int cellsCovered) {
+        if (enabled) {
+            rays.increment();
+            cells.add(cellsCovered);
+        }
+    }
+
+    /**
+     * Records one lookup of a board cell.
+     */
+    public void recordLookup() {
+        if (enabled) {
+            lookups.increment();
+        }
+    }
+
+    /**
+     * Records one travel along a ray.
+     *
+     * @param eaten   The value of the food eaten.
+     * @param blocked True if an insect of another color cut the travel short.
+     */
+    public void recordTravel(int eaten, boolean blocked) {
+        if (enabled) {
+            travels.increment();
+            foodEaten.add(eaten);
+            if (blocked) {
+                blockedTravels.increment();
+            }
+        }
+    }
+
+    /**
+     * Records one best-direction query of an insect.
+     *
+     * @param insect The insect.
+     * @param start  The time returned by {@link #start()} before the query.
+     */
+    public void recordEvaluation(Insect insect, long start) {
+        if (enabled) {
+            evaluations.increment();
+            addSpeciesTime(Insect.TYPES.indexOf(insect.getInsectType()), start);
+        }
+    }
+
+    /**
+     * Records one move of an insect.
+     *
+     * @param insect The insect.
+     * @param start  The time returned by {@link #start()} before the move.
+     */
+    public void recordMove(Insect insect, long start) {
+        if (enabled) {
+            int species = Insect.TYPES.indexOf(insect.getInsectType());
+            if (species >= 0) {
+                speciesTurns[species].increment();
+            }
+            addSpeciesTime(species, start);
+        }
+    }
+
+    private void addSpeciesTime(int species, long start) {
+        if (species >= 0) {
+            speciesNanos[species].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the end of a phase of a scenario.
+     *
+     * @param phase The phase.
+     * @param start The time returned by {@link #start()} when the phase began.
+     */
+    public void recordPhase(Phase phase, long start) {
+        if (enabled) {
+            phaseNanos[phase.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds the visible-food cache statistics of a finished board.
+     *
+     * @param hits   The queries answered from the cache.
+     * @param misses The queries that were computed.
+     */
+    public void recordCache(long hits, long misses) {
+        if (enabled) {
+            cacheHits.add(hits);
+            cacheMisses.add(misses);
+        }
+    }
+
+    /**
+     * Prints a summary of everything recorded.
+     *
+     * @param out The stream to print to.
+     */
+    public void printSummary(PrintStream out) {
+        long queries = evaluations.sum();
+        out.println("Simulation metrics");
+        for (Phase phase : PHASES) {
+            out.printf("  %-28s %12.3f ms%n", "phase " + phase.getLabel(), phaseNanos[phase.ordinal()].sum() / 1e6);
+        }
+        out.printf("  %-28s %12d%n", "best-direction queries", queries);
+        out.printf("  %-28s %12d  %8.1f per query%n", "rays queried", rays.sum(), perQuery(rays.sum(), queries));
+        out.printf("  %-28s %12d  %8.1f per query%n", "cells scanned", cells.sum(), perQuery(cells.sum(), queries));
+        out.printf("  %-28s %12d / %d%n", "cache hits / misses", cacheHits.sum(), cacheMisses.sum());
+        out.printf("  %-28s %12d%n", "board lookups", lookups.sum());
+        out.printf("  %-28s %12d%n", "travels", travels.sum());
+        out.printf("  %-28s %12d%n", "travels blocked by enemies", blockedTravels.sum());
+        out.printf("  %-28s %12d%n", "food eaten", foodEaten.sum());
+        for (int i = 0; i < Insect.TYPES.size(); i++) {
+            long turns = speciesTurns[i].sum();
+            long nanos = speciesNanos[i].sum();
+            out.printf("  %-28s %12d turns %12.3f ms %10.1f ns/turn%n", Insect.TYPES.get(i), turns,
+                    nanos / 1e6, perQuery(nanos, turns));
+        }
+    }
+
+    private static double perQuery(long total, long queries) {
+        return queries == 0 ? 0 : (double) total / queries;
+    }
+}
+
+/**
+ * The PhaseEvent class is the flight recorder event of one phase of a scenario.
+ * Like all events it costs next to nothing unless a recording is running.
+ */
+@Name("insects.Phase")
+@Label("Scenario Phase")
+@Category("Insects")
+@Description("Parsing, simulating or writing one scenario")
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    /**
+     * Creates an event and starts its timing.
+     *
+     * @return The event.
+     */
+    static PhaseEvent start() {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the timing and commits the event if it is recorded.
+     *
+     * @param phase The phase that ended.
+     */
+    void finish(SimulationMetrics.Phase phase) {
+        if (shouldCommit()) {
+            this.phase = phase.getLabel();
+            commit();
+        }
+    }
+}
+
+/**
+ * The TurnEvent class is the flight recorder event of one insect move.
+ */
+@Name("insects.Turn")
+@Label("Insect Turn")
+@Category("Insects")
+@Description("One insect travelling along its chosen direction")
+class TurnEvent extends Event {
+    @Label("Species")
+    String species;
+    @Label("Color")
+    String color;
+    @Label("Direction")
+    String direction;
+    @Label("Round")
+    int round;
+    @Label("Food Eaten")
+    int foodEaten;
+
+    /**
+     * Creates an event and starts its timing.
+     *
+     * @return The event.
+     */
+    static TurnEvent start() {
+        TurnEvent event = new TurnEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the timing and commits the event if it is recorded.
+     *
+     * @param insect The insect that moved.
+     * @param dir    The direction it travelled.
+     * @param round  The round of the move.
+     * @param eaten  The value of the food it ate.
+     */
+    void finish(Insect insect, Direction dir, int round, int eaten) {
+        if (shouldCommit()) {
+            species = insect.getInsectType();
+            color = insect.color.toString();
+            direction = dir.toString();
+            this.round = round;
+            foodEaten = eaten;
+            commit();
+        }
+    }
+}
+
+/**
+ * The OutputFormat enum lists the encodings of the moves of a scenario.
+ */
+enum OutputFormat {
+    /**
+     * One line per move and per round header, as in the original game.
+     */
+    TEXT,
+    /**
+     * Tagged binary records, see {@link BinaryMoveEncoder}.
+     */
+    BINARY;
+
+    /**
+     * Parses a format name, case-insensitively.
+     *
+     * @param name The name of the format.
+     * @return The format.
+     * @throws IllegalArgumentException If there is no format of that name.
+     */
+    public static OutputFormat fromString(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
+
+/**
+ * The MoveEventSink interface receives what a scenario writes: round headers, moves and
+ * error messages, as structured events rather than formatted lines.
+ */
+interface MoveEventSink {
+    /**
+     * Opens the sink a configuration asks for over the output of a scenario.
+     *
+     * @param io     The input and output of the scenario.
+     * @param config The output settings.
+     * @return The sink; closing it closes the output.
+     */
+    static MoveEventSink open(IOHandler io, SimulationConfig config) {
+        MoveEventSink encoder = config.getOutputFormat() == OutputFormat.BINARY
+                ? new BinaryMoveEncoder(io) : new TextMoveEncoder(io);
+        return config.isAsyncOutput() ? new AsyncMoveWriter(encoder, config.getOutputBuffer()) : encoder;
+    }
+
+    /**
+     * Marks the start of a round.
+     *
+     * @param round The number of the round.
+     */
+    void round(int round);
+
+    /**
+     * Records one move.
+     *
+     * @param color     The color of the insect.
+     * @param species   The index of the type of the insect in {@link Insect#TYPES}.
+     * @param direction The direction it travelled.
+     * @param eaten     The value of the food it ate.
+     * @param round     The round of the move.
+     */
+    void move(InsectColor color, int species, Direction direction, int eaten, int round);
+
+    /**
+     * Records an error message that ends the scenario.
+     *
+     * @param message The message.
+     */
+    void message(String message);
+
+    /**
+     * Writes everything pending and closes the output.
+     */
+    void close();
+}
+
+/**
+ * A sink writing the original text format: one line per round header and per move, separated
+ * by newlines, and error messages as they are.
+ */
+class TextMoveEncoder implements MoveEventSink {
+    private final IOHandler io;
+    private final StringBuilder line = new StringBuilder();
+    private boolean firstLine = true;
+
+    TextMoveEncoder(IOHandler io) {
+        this.io = io;
+    }
+
+    private StringBuilder startLine() {
+        line.setLength(0);
+        if (!firstLine) {
+            line.append('\n');
+        }
+        firstLine = false;
+        return line;
+    }
+
+    @Override
+    public void round(int round) {
+        io.print(startLine().append("Round ").append(round).toString());
+    }
+
+    @Override
+    public void move(InsectColor color, int species, Direction direction, int eaten, int round) {
+        io.print(startLine().append(color).append(' ').append(Insect.TYPES.get(species)).append(' ')
+                .append(direction).append(' ').append(eaten).toString());
+    }
+
+    @Override
+    public void message(String message) {
+        io.print(message);
+    }
+
+    @Override
+    public void close() {
+        io.close();
+    }
+}
+
+/**
+ * A sink writing compact binary records. The output starts with the int {@link #MAGIC} and the
+ * int {@link #VERSION}; each record is a tag byte followed by its fields, big-endian:
+ * a round is its number as an int; a move is the color, species and direction ordinals as
+ * bytes and the food eaten as an int; a message is its UTF-8 length as an int and its bytes.
+ */
+class BinaryMoveEncoder implements MoveEventSink {
+    static final int MAGIC = 0x494E534D;
+    static final int VERSION = 1;
+    static final byte ROUND = 0;
+    static final byte MOVE = 1;
+    static final byte MESSAGE = 2;
+
+    private final IOHandler io;
+    private final ByteBuffer record = ByteBuffer.allocate(16);
+
+    BinaryMoveEncoder(IOHandler io) {
+        this.io = io;
+        record.putInt(MAGIC).putInt(VERSION);
+        flushRecord();
+    }
+
+    private void flushRecord() {
+        io.write(record.array(), record.position());
+        record.clear();
+    }
+
+    @Override
+    public void round(int round) {
+        record.put(ROUND).putInt(round);
+        flushRecord();
+    }
+
+    @Override
+    public void move(InsectColor color, int species, Direction direction, int eaten, int round) {
+        record.put(MOVE).put((byte) color.ordinal()).put((byte) species).put((byte) direction.ordinal()).putInt(eaten);
+        flushRecord();
+    }
+
+    @Override
+    public void message(String message) {
+        byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        record.put(MESSAGE).putInt(bytes.length);
+        flushRecord();
+        io.write(bytes, bytes.length);
+    }
+
+    @Override
+    public void close() {
+        io.close();
+    }
+}
+
+/**
+ * A sink that hands events to a writer thread through a bounded single-producer ring buffer, so
+ * encoding and output I/O run beside the simulation instead of on it. Slots are columns of
+ * primitives, so queuing an event allocates nothing. When the buffer is full the simulation
+ * waits for the writer; an idle writer parks until the next event.
+ * Events must come from one thread at a time.
+ */
+class AsyncMoveWriter implements MoveEventSink {
+    private static final byte ROUND = 0;
+    private static final byte MOVE = 1;
+    private static final byte MESSAGE = 2;
+    private static final long FULL_WAIT_NANOS = 10_000;
+    private static final InsectColor[] COLORS = InsectColor.values();
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final MoveEventSink encoder;
+    private final int mask;
+    private final byte[] kinds;
+    private final byte[] colors;
+    private final byte[] species;
+    private final byte[] directions;
+    private final int[] values;
+    private final int[] rounds;
+    private final String[] messages;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+    private long next;
+
+    /**
+     * Starts a writer thread feeding an encoder.
+     *
+     * @param encoder  The sink the writer thread passes the events to.
+     * @param capacity The number of events buffered, rounded up to a power of two.
+     */
+    AsyncMoveWriter(MoveEventSink encoder, int capacity) {
+        this.encoder = encoder;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        mask = size - 1;
+        kinds = new byte[size];
+        colors = new byte[size];
+        species = new byte[size];
+        directions = new byte[size];
+        values = new int[size];
+        rounds = new int[size];
+        messages = new String[size];
+        writer = new Thread(this::drain, "move-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private int claim() {
+        while (next - consumed.get() > mask) {
+            checkFailure();
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+        return (int) next & mask;
+    }
+
+    private void publish() {
+        published.set(++next);
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    @Override
+    public void round(int round) {
+        int slot = claim();
+        kinds[slot] = ROUND;
+        rounds[slot] = round;
+        publish();
+    }
+
+    @Override
+    public void move(InsectColor color, int insectSpecies, Direction direction, int eaten, int round) {
+        int slot = claim();
+        kinds[slot] = MOVE;
+        colors[slot] = (byte) color.ordinal();
+        species[slot] = (byte) insectSpecies;
+        directions[slot] = (byte) direction.ordinal();
+        values[slot] = eaten;
+        rounds[slot] = round;
+        publish();
+    }
+
+    @Override
+    public void message(String message) {
+        int slot = claim();
+        kinds[slot] = MESSAGE;
+        messages[slot] = message;
+        publish();
+    }
+
+    private void drain() {
+        try {
+            long position = 0;
+            while (true) {
+                long available = published.get();
+                if (position == available) {
+                    if (closed) {
+                        // Events published before closing are visible once closed is
+                        if (published.get() == position) {
+                            return;
+                        }
+                        continue;
+                    }
+                    waiting = true;
+                    // Check again after announcing the wait, so a publish in between is not missed
+                    if (published.get() == position && !closed) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                for (; position < available; position++) {
+                    int slot = (int) position & mask;
+                    if (kinds[slot] == ROUND) {
+                        encoder.round(rounds[slot]);
+                    } else if (kinds[slot] == MOVE) {
+                        encoder.move(COLORS[colors[slot]], species[slot], DIRECTIONS[directions[slot]], values[slot],
+                                rounds[slot]);
+                    } else {
+                        encoder.message(messages[slot]);
+                        messages[slot] = null;
+                    }
+                    consumed.set(position + 1);
+                }
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for the writer thread to write every event, then closes the encoder.
+     *
+     * @throws RuntimeException If the writer thread failed to write an event.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encoder.close();
+        checkFailure();
+    }
+}
+
+/**
+ * The Checkpoint class saves and restores the state of a simulation in a compact binary file:
+ * the board size, the number of rounds played, the insects on the board in their moving order
+ * and the remaining food points. The file starts with a magic number and a format version and
+ * ends with a CRC32 of everything before it. It is written through a FileChannel and read back
+ * through a memory mapping.
+ */
+class Checkpoint {
+    static final int MAGIC = 0x494E5342;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 6 * Integer.BYTES;
+    private static final int INSECT_BYTES = 2 + 2 * Integer.BYTES;
+    private static final int FOOD_BYTES = 3 * Integer.BYTES;
+
+    private final Board board;
+    private final List<Insect> insects;
+    private final int round;
+
+    private Checkpoint(Board board, List<Insect> insects, int round) {
+        this.board = board;
+        this.insects = insects;
+        this.round = round;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public List<Insect> getInsects() {
+        return insects;
+    }
+
+    /**
+     * Gets the number of rounds played before the checkpoint was written.
+     *
+     * @return The round counter.
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * Writes the state of a simulation. Insects that have left the board are not saved.
+     *
+     * @param path    The file to write, replaced if it exists.
+     * @param board   The board.
+     * @param insects The insects in their moving order.
+     * @param round   The number of rounds played.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path path, Board board, List<Insect> insects, int round) throws IOException {
+        List<Insect> onBoard = new ArrayList<>();
+        for (Insect insect : insects) {
+            if (board.getEntity(insect.entityPosition) == insect) {
+                onBoard.add(insect);
+            }
+        }
+        List<FoodPoint> foods = board.getFoodPoints();
+        long bytes = HEADER_BYTES + (long) onBoard.size() * INSECT_BYTES + (long) foods.size() * FOOD_BYTES + Long.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(bytes));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(board.getSize()).putInt(round);
+        buffer.putInt(onBoard.size()).putInt(foods.size());
+        for (Insect insect : onBoard) {
+            buffer.put((byte) insect.color.ordinal());
+            buffer.put((byte) Insect.TYPES.indexOf(insect.getInsectType()));
+            buffer.putInt(insect.entityPosition.getX()).putInt(insect.entityPosition.getY());
+        }
+        for (FoodPoint food : foods) {
+            buffer.putInt(food.value).putInt(food.entityPosition.getX()).putInt(food.entityPosition.getY());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a checkpoint and rebuilds the board from it. The header is validated before anything is
+     * allocated, and the restored state is held to the limits and duplicate rule of the input.
+     *
+     * @param path   The file to read.
+     * @param config The settings choosing the storage of the board and limiting its contents.
+     * @return The restored state.
+     * @throws IOException                         If the file cannot be read.
+     * @throws InvalidCheckpointException          If the file is not a valid checkpoint of this version.
+     * @throws InvalidNumberOfInsectsException     If it holds more insects than allowed.
+     * @throws InvalidNumberOfFoodPointsException  If it holds more food points than allowed.
+     * @throws DuplicateInsectException            If insects must be unique and two share a color and type.
+     */
+    public static Checkpoint read(Path path, SimulationConfig config) throws IOException, InvalidCheckpointException,
+            InvalidNumberOfInsectsException, InvalidNumberOfFoodPointsException, DuplicateInsectException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES + Long.BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new InvalidCheckpointException();
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int checked = buffer.limit() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(checked));
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong(checked) != crc.getValue()) {
+            throw new InvalidCheckpointException();
+        }
+        int size = buffer.getInt();
+        int round = buffer.getInt();
+        int insectCount = buffer.getInt();
+        int foodCount = buffer.getInt();
+        // Negative counts can balance the length equation, so signs are checked first
+        if (size < 1 || size > config.getMaxBoardSize() || round < 0 || insectCount < 0 || foodCount < 0
+                || HEADER_BYTES + (long) insectCount * INSECT_BYTES + (long) foodCount * FOOD_BYTES != checked) {
+            throw new InvalidCheckpointException();
+        }
+        // Insects leave the board and food is eaten, so a saved state may hold none of either
+        if (insectCount > config.getMaxInsects()) {
+            throw new InvalidNumberOfInsectsException();
+        }
+        if (foodCount > config.getMaxFoodPoints()) {
+            throw new InvalidNumberOfFoodPointsException();
+        }
+        Board board = new Board(BoardStorage.forConfig(size, config), size);
+        List<Insect> insects = new ArrayList<>(insectCount);
+        BitSet seen = new BitSet(InsectColor.values().length * Insect.TYPES.size());
+        try {
+            for (int i = 0; i < insectCount; i++) {
+                InsectColor color = InsectColor.values()[buffer.get()];
+                int species = buffer.get();
+                String insectType = Insect.TYPES.get(species);
+                if (config.isUniqueInsects()) {
+                    int bit = color.ordinal() * Insect.TYPES.size() + species;
+                    if (seen.get(bit)) {
+                        throw new DuplicateInsectException();
+                    }
+                    seen.set(bit);
+                }
+                Insect insect = Insect.create(insectType, readPosition(buffer, board), color);
+                insects.add(insect);
+                board.addEntity(insect);
+            }
+            for (int i = 0; i < foodCount; i++) {
+                int value = buffer.getInt();
+                EntityPosition position = readPosition(buffer, board);
+                board.addFood(position.getX(), position.getY(), value);
+            }
+        } catch (IndexOutOfBoundsException | InvalidInsectTypeException | TwoEntitiesOnSamePositionException e) {
+            throw new InvalidCheckpointException();
+        }
+        return new Checkpoint(board, insects, round);
+    }
+
+    private static EntityPosition readPosition(ByteBuffer buffer, Board board) throws InvalidCheckpointException {
+        EntityPosition position = new EntityPosition(buffer.getInt(), buffer.getInt());
+        if (!board.onBoard(position)) {
+            throw new InvalidCheckpointException();
+        }
+        return position;
+    }
+}
+
+/**
+ * The IOHandler class handles input and output operations for the program.
+ * It reads input from a file and writes output to another file.
+ */
+class IOHandler {
+    private final InputReader input;
+    private final OutputWriter output;
+    private int boardSize;
+
+    /**
+     * Constructs a handler over a reader and a writer.
+     *
+     * @param input  The source of the input tokens.
+     * @param output The destination of the output.
+     */
+    IOHandler(InputReader input, OutputWriter output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Opens a handler reading one file and writing another.
+     *
+     * @param inputPath  The input file.
+     * @param outputPath The output file, truncated if it exists.
+     * @param fastIO     True to use the channel-based byte-level reader and writer instead of
+     *                   Scanner and PrintWriter.
+     * @return The handler.
+     * @throws IOException If a file cannot be opened.
+     */
+    public static IOHandler open(Path inputPath, Path outputPath, boolean fastIO) throws IOException {
+        if (fastIO) {
+            return new IOHandler(new ChannelInputReader(inputPath), new ChannelOutputWriter(outputPath));
+        }
+        return new IOHandler(new ScannerInputReader(new Scanner(inputPath.toFile())),
+                new PrintOutputWriter(new PrintWriter(new FileWriter(outputPath.toFile()))));
+    }
+
+    /**
+     * Sets the board size the coordinates are validated against.
+     *
+     * @param boardSize The size of the board.
+     */
+    public void setBoardSize(int boardSize) {
+        this.boardSize = boardSize;
+    }
+
+    /**
+     * Prints a string to the output file.
+     *
+     * @param string The string to be printed.
+     */
+    public void print(String string) {
+        output.print(string);
+    }
+
+    /**
+     * Writes raw bytes to the output file.
+     *
+     * @param bytes  The bytes to write.
+     * @param length The number of bytes to write from the start of the array.
+     * @throws UnsupportedOperationException If the output only takes text.
+     */
+    public void write(byte[] bytes, int length) {
+        output.write(bytes, length);
+    }
+
+    /**
+     * Reads an integer from the input file.
+     *
+     * @return The integer read from the input file.
+     */
+    public int inputInt() {
+        return input.nextInt();
+    }
+
+    /**
+     * Reads coordinates (x, y) from the input file and returns an EntityPosition.
+     *
+     * @return The EntityPosition representing the coordinates.
+     * @throws InvalidEntityPositionException If the coordinates are invalid.
+     */
+    public EntityPosition inputCoordinates() throws InvalidEntityPositionException {
+        int x = input.nextInt();
+        int y = input.nextInt();
+        if (x < 1 || x > boardSize || y < 1 || y > boardSize) {
+            throw new InvalidEntityPositionException();
+        }
+        return new EntityPosition(x, y);
+    }
+
+    /**
+     * Reads a string from the input file.
+     *
+     * @return The string read from the input file.
+     */
+    public String inputString() {
+        return input.next();
+    }
+
+    /**
+     * Closes the input and flushes and closes the output.
+     */
+    public void close() {
+        input.close();
+        output.close();
+    }
+}
+
+/**
+ * The InputReader interface represents a source of whitespace-separated tokens.
+ */
+interface InputReader {
+    /**
+     * Reads the next token as an integer.
+     *
+     * @return The integer read.
+     * @throws java.util.InputMismatchException If the token is not an integer.
+     * @throws java.util.NoSuchElementException If the input is exhausted.
+     */
+    int nextInt();
+
+    /**
+     * Reads the next token.
+     *
+     * @return The token read.
+     * @throws java.util.NoSuchElementException If the input is exhausted.
+     */
+    String next();
+
+    /**
+     * Releases the source.
+     */
+    void close();
+}
+
+/**
+ * An input reader backed by java.util.Scanner.
+ */
+class ScannerInputReader implements InputReader {
+    private final Scanner scanner;
+
+    ScannerInputReader(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public int nextInt() {
+        return scanner.nextInt();
+    }
+
+    @Override
+    public String next() {
+        return scanner.next();
+    }
+
+    @Override
+    public void close() {
+        scanner.close();
+    }
+}
+
+/**
+ * An input reader tokenizing ASCII bytes straight from a FileChannel.
+ * Color and insect type names are matched against a fixed table, so reading them allocates nothing.
+ */
+class ChannelInputReader implements InputReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String[] KNOWN_TOKENS = {
+        "Red", "Green", "Blue", "Yellow", "Butterfly", "Ant", "Spider", "Grasshopper"
+    };
+    private static final byte[][] KNOWN_BYTES = new byte[KNOWN_TOKENS.length][];
+
+    static {
+        for (int i = 0; i < KNOWN_TOKENS.length; i++) {
+            KNOWN_BYTES[i] = KNOWN_TOKENS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private byte[] token = new byte[64];
+    private int tokenLength;
+
+    /**
+     * Opens a reader over a file.
+     *
+     * @param path The file to read.
+     * @throws IOException If the file cannot be opened.
+     */
+    ChannelInputReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        buffer.flip();
+    }
+
+    private int read() {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            try {
+                int read;
+                do {
+                    read = channel.read(buffer);
+                } while (read == 0);
+                buffer.flip();
+                if (read < 0) {
+                    return -1;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return buffer.get();
+    }
+
+    private void readToken() {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+            c = read();
+        }
+        if (c < 0) {
+            throw new NoSuchElementException();
+        }
+        tokenLength = 0;
+        while (c > ' ') {
+            if (tokenLength == token.length) {
+                token = Arrays.copyOf(token, token.length * 2);
+            }
+            token[tokenLength++] = (byte) c;
+            c = read();
+        }
+    }
+
+    @Override
+    public int nextInt() {
+        readToken();
+        int i = 0;
+        boolean negative = false;
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            i = 1;
+        }
+        if (i == tokenLength) {
+            throw new InputMismatchException();
+        }
+        long value = 0;
+        for (; i < tokenLength; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new InputMismatchException();
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                break;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (i < tokenLength || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new InputMismatchException("For input string: \"" + tokenString() + "\"");
+        }
+        return (int) value;
+    }
+
+    @Override
+    public String next() {
+        readToken();
+        for (int k = 0; k < KNOWN_BYTES.length; k++) {
+            if (Arrays.equals(token, 0, tokenLength, KNOWN_BYTES[k], 0, KNOWN_BYTES[k].length)) {
+                return KNOWN_TOKENS[k];
+            }
+        }
+        return tokenString();
+    }
+
+    private String tokenString() {
+        return new String(token, 0, tokenLength, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+/**
+ * The OutputWriter interface represents a destination for the program output.
+ */
+interface OutputWriter {
+    /**
+     * Writes a string.
+     *
+     * @param string The string to write; null is written as "null".
+     */
+    void print(String string);
+
+    /**
+     * Writes raw bytes. Only byte-level writers support this.
+     *
+     * @param bytes  The bytes to write.
+     * @param length The number of bytes to write from the start of the array.
+     * @throws UnsupportedOperationException If the writer only takes text.
+     */
+    default void write(byte[] bytes, int length) {
+        throw new UnsupportedOperationException("Binary output needs the byte-level writer");
+    }
+
+    /**
+     * Flushes pending output and releases the destination.
+     */
+    void close();
+}
+
+/**
+ * An output writer backed by java.io.PrintWriter.
+ */
+class PrintOutputWriter implements OutputWriter {
+    private final PrintWriter writer;
+
+    PrintOutputWriter(PrintWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void print(String string) {
+        writer.print(string);
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+}
+
+/**
+ * An output writer encoding into a reusable direct byte buffer that is written to a FileChannel
+ * only when full or on close.
+ */
+class ChannelOutputWriter implements OutputWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Opens a writer over a file, truncating it.
+     *
+     * @param path The file to write.
+     * @throws IOException If the file cannot be opened.
+     */
+    ChannelOutputWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void print(String string) {
+        if (string == null) {
+            string = "null";
+        }
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x80) {
+                put(string.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    private void put(byte[] bytes) {
+        write(bytes, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int length) {
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(length - offset, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+/**
+ * The EntityPosition class represents the position of an entity on the game board.
+ */
+class EntityPosition {
+    private int x;
+    private int y;
+
+    EntityPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Gets the x-coordinate of the position.
+     *
+     * @return The x-coordinate.
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Gets the y-coordinate of the position.
+     *
+     * @return The y-coordinate.
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Adds another EntityPosition to this position and returns a new EntityPosition.
+     *
+     * @param other The other EntityPosition to be added.
+     * @return The new EntityPosition after addition.
+     */
+    public EntityPosition sum(EntityPosition other) {
+        int newX = x + other.getX();
+        int newY = y + other.getY();
+        return new EntityPosition(newX, newY);
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(x) + ':' + y;
+    }
+}
+
+/**
+ * The FoodPoint class represents a food entity on the game board.
+ * Food on a board lives in the columns of its {@link EntityStore}; the FoodPoint objects a board
+ * hands out are views built on demand, and those passed in are only read when they are added.
+ */
+class FoodPoint extends BoardEntity {
+    protected int value;
+
+    /**
+     * Constructs a FoodPoint with the specified position and value.
+     *
+     * @param position The position of the food entity.
+     * @param value    The value of the food entity.
+     */
+    public FoodPoint(EntityPosition position, int value) {
+        this.setEntityPosition(position);
+        this.value = value;
+    }
+}
+
+/**
+ * The BoardEntity class is an abstract class representing an entity on the game board.
+ */
+abstract class BoardEntity {
+    protected EntityPosition entityPosition;
+
+    /**
+     * Sets the position of the entity on the game board.
+     *
+     * @param entityPosition The new position of the entity.
+     */
+    public void setEntityPosition(EntityPosition entityPosition) {
+        this.entityPosition = entityPosition;
+    }
+}
+
+/**
+ * The InsectColor enum represents the possible colors of insects.
+ */
+enum    InsectColor {
+    RED,
+    GREEN,
+    BLUE,
+    YELLOW;
+
+    /**
+     * Converts a string to the corresponding InsectColor.
+     *
+     * @param s The string representation of the color.
+     * @return The InsectColor.
+     * @throws InvalidInsectColorException If the string is not a valid color.
+     */
+    public static InsectColor toColour(String s) throws InvalidInsectColorException {
+        switch (s) {
+            case "Red" -> {
+                return RED;
+            }
+            case "Green" -> {
+                return GREEN;
+            }
+            case "Blue" -> {
+                return BLUE;
+            }
+            case "Yellow" -> {
+                return YELLOW;
+            }
+            default -> {
+                throw new InvalidInsectColorException();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (this) {
+            case RED -> {
+                return "Red";
+            }
+            case YELLOW -> {
+                return "Yellow";
+            }
+            case GREEN -> {
+                return "Green";
+            }
+            case BLUE -> {
+                return "Blue";
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+}
+
+/**
+ * The Direction enum represents the possible directions an insect can move.
+ */
+enum Direction {
+    N("North", -1, 0, BoardLine.COLUMN),
+    E("East", 0, 1, BoardLine.ROW),
+    S("South", 1, 0, BoardLine.COLUMN),
+    W("West", 0, -1, BoardLine.ROW),
+    NE("North-East", -1, 1, BoardLine.ANTI_DIAGONAL),
+    SE("South-East", 1, 1, BoardLine.DIAGONAL),
+    SW("South-West", 1, -1, BoardLine.ANTI_DIAGONAL),
+    NW("North-West", -1, -1, BoardLine.DIAGONAL);
+
+    private static final List<Direction> ORTHOGONAL = List.of(N, E, S, W);
+    private static final List<Direction> DIAGONAL = List.of(NE, SE, SW, NW);
+    private static final List<Direction> ALL = List.of(N, E, S, W, NE, SE, SW, NW);
+
+    private final String textRepresentation;
+    private final int dx;
+    private final int dy;
+    private final BoardLine line;
+
+    Direction(String text, int dx, int dy, BoardLine line) {
+        textRepresentation = text;
+        this.dx = dx;
+        this.dy = dy;
+        this.line = line;
+    }
+
+    /**
+     * Gets the change of the x-coordinate made by one step in this direction.
+     *
+     * @return The x-offset of the direction.
+     */
+    public int getDx() {
+        return dx;
+    }
+
+    /**
+     * Gets the change of the y-coordinate made by one step in this direction.
+     *
+     * @return The y-offset of the direction.
+     */
+    public int getDy() {
+        return dy;
+    }
+
+    /**
+     * Gets the family of board lines this direction moves along.
+     *
+     * @return The board line of the direction.
+     */
+    public BoardLine getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the sign of the step this direction makes along the offset of its line.
+     *
+     * @return 1 if the offset grows while moving, -1 if it shrinks.
+     */
+    public int getLineStep() {
+        return line == BoardLine.ROW ? dy : dx;
+    }
+
+    /**
+     * Gets the offset corresponding to the direction.
+     *
+     * @return The offset as an EntityPosition.
+     */
+    public EntityPosition getOffset() {
+        return new EntityPosition(dx, dy);
+    }
+
+    /**
+     * Calculates the next position based on the current position and the direction.
+     *
+     * @param curr The current position.
+     * @return The next position after moving in the direction.
+     */
+    public EntityPosition nextPos(EntityPosition curr) {
+        return new EntityPosition(curr.getX() + dx, curr.getY() + dy);
+    }
+
+    /**
+     * Gets a list of orthogonal directions (N, E, S, W).
+     *
+     * @return The list of orthogonal directions.
+     */
+    public static List<Direction> getOrthogonalDirections() {
+        return ORTHOGONAL;
+    }
+
+    /**
+     * Gets a list of diagonal directions (NE, SE, SW, NW).
+     *
+     * @return The list of diagonal directions.
+     */
+    public static List<Direction> getDiagonalDirections() {
+        return DIAGONAL;
+    }
+
+    /**
+     * Gets a list of all directions (N, E, S, W, NE, SE, SW, NW).
+     *
+     * @return The list of all directions.
+     */
+    public static List<Direction> getAllDirections() {
+        return ALL;
+    }
+
+    @Override
+    public String toString() {
+        return textRepresentation;
+    }
+}
+
+/**
+ * The BoardLine enum represents the families of straight lines crossing the board.
+ * Every cell lies on exactly one line of each family and has an offset along it.
+ */
+enum BoardLine {
+    ROW,
+    COLUMN,
+    DIAGONAL,
+    ANTI_DIAGONAL;
+
+    /**
+     * Gets the number of line ids needed for a board of the given size.
+     *
+     * @param boardSize The size of the board.
+     * @return The number of line ids.
+     */
+    public int lineCount(int boardSize) {
+        return this == ROW || this == COLUMN ? boardSize + 1 : 2 * boardSize;
+    }
+
+    /**
+     * Gets the id of the line of this family passing through a cell.
+     *
+     * @param x         The x-coordinate of the cell.
+     * @param y         The y-coordinate of the cell.
+     * @param boardSize The size of the board.
+     * @return The id of the line.
+     */
+    public int lineOf(int x, int y, int boardSize) {
+        switch (this) {
+            case ROW -> {
+                return x;
+            }
+            case COLUMN -> {
+                return y;
+            }
+            case DIAGONAL -> {
+                return x - y + boardSize;
+            }
+            default -> {
+                return x + y - 1;
+            }
+        }
+    }
+
+    /**
+     * Gets the offset of a cell along the line of this family passing through it.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The offset of the cell.
+     */
+    public int offsetOf(int x, int y) {
+        return this == ROW ? y : x;
+    }
+
+    /**
+     * Gets the x-coordinate of the cell at an offset along a line of this family.
+     *
+     * @param lineId    The id of the line.
+     * @param offset    The offset along the line.
+     * @param boardSize The size of the board.
+     * @return The x-coordinate of the cell.
+     */
+    public int xOf(int lineId, int offset, int boardSize) {
+        return this == ROW ? lineId : offset;
+    }
+
+    /**
+     * Gets the y-coordinate of the cell at an offset along a line of this family.
+     *
+     * @param lineId    The id of the line.
+     * @param offset    The offset along the line.
+     * @param boardSize The size of the board.
+     * @return The y-coordinate of the cell.
+     */
+    public int yOf(int lineId, int offset, int boardSize) {
+        switch (this) {
+            case ROW -> {
+                return offset;
+            }
+            case COLUMN -> {
+                return lineId;
+            }
+            case DIAGONAL -> {
+                return offset - lineId + boardSize;
+            }
+            default -> {
+                return lineId + 1 - offset;
+            }
+        }
+    }
+}
+
+/**
+ * An interface representing movement in orthogonal directions on a board.
+ */
+interface OrthogonalMoving {
+
+    /**
+     * Computes the sum of visible values in the orthogonal direction from the current position.
+     *
+     * @param dir            The direction of movement.
+     * @param entityPosition The current position of the entity.
+     * @param board          The board containing entities.
+     * @return The sum of visible values in the specified orthogonal direction.
+     */
+    public default int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
+                                                          Board board) {
+        return board.getVisibleFood(entityPosition.getX(), entityPosition.getY(), dir, 1);
+    }
+
+    /**
+     * Moves the entity orthogonally in the specified direction, interacting with entities on the way.
+     *
+     * @param dir            The direction of movement.
+     * @param entityPosition The current position of the entity.
+     * @param insectColor    The color of the insect.
+     * @param board          The board containing entities.
+     * @return The sum of values obtained during movement (e.g., consumed food).
+     */
+    public default int travelOrthogonally(Direction dir, EntityPosition entityPosition, InsectColor insectColor,
+                                          Board board) {
+        return board.travel(entityPosition, dir, 1, insectColor);
+    };
+}
+
+/**
+ * An interface representing movement in diagonal directions on a board.
+ */
+interface DiagonalMoving {
+
+    /**
+     * Computes the sum of visible values in the diagonal direction from the current position.
+     *
+     * @param dir            The direction of movement.
+     * @param entityPosition The current position of the entity.
+     * @param board          The board containing entities.
+     * @return The sum of visible values in the specified diagonal direction.
+     */
+    public default int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
+                                                        Board board) {
+        return board.getVisibleFood(entityPosition.getX(), entityPosition.getY(), dir, 1);
+    };
+
+    /**
+     * Moves the entity diagonally in the specified direction, interacting with entities on the way.
+     *
+     * @param dir            The direction of movement.
+     * @param entityPosition The current position of the entity.
+     * @param insectColor    The color of the insect.
+     * @param board          The board containing entities.
+     * @return The sum of values obtained during movement (e.g., consumed food).
+     */
+    public default int travelDiagonally(Direction dir, EntityPosition entityPosition, InsectColor insectColor,
+                                        Board board) {
+        return board.travel(entityPosition, dir, 1, insectColor);
+    };
+}
+/**
+ * An abstract class representing an insect on the board.
+ */
+abstract class Insect extends BoardEntity {
+    /**
+     * The type names of all insects.
+     */
+    public static final List<String> TYPES = List.of("Butterfly", "Ant", "Spider", "Grasshopper");
+
+    private String insectType;
+
+    public String getInsectType() {
+        return insectType;
+    }
+
+    public void setInsectType(String insectType) {
+        this.insectType = insectType;
+    }
+
+    protected InsectColor color;
+
+    /**
+     * Constructs an insect with the given position and color.
+     *
+     * @param position The initial position of the insect.
+     * @param color    The color of the insect.
+     */
+    public Insect(EntityPosition position, InsectColor color) {
+        this.color = color;
+        this.setEntityPosition(position);
+    }
+
+    /**
+     * Creates an insect of the given type.
+     *
+     * @param insectType The type name of the insect, one of {@link #TYPES}.
+     * @param position   The initial position of the insect.
+     * @param color      The color of the insect.
+     * @return The insect.
+     * @throws InvalidInsectTypeException If the type name is unknown.
+     */
+    public static Insect create(String insectType, EntityPosition position, InsectColor color)
+            throws InvalidInsectTypeException {
+        Insect insect;
+        if (Objects.equals(insectType, "Butterfly")) {
+            insect = new Butterfly(position, color);
+        } else if (Objects.equals(insectType, "Ant")) {
+            insect = new Ant(position, color);
+        } else if (Objects.equals(insectType, "Spider")) {
+            insect = new Spider(position, color);
+        } else if (Objects.equals(insectType, "Grasshopper")) {
+            insect = new Grasshopper(position, color);
+        } else {
+            throw new InvalidInsectTypeException();
+        }
+        insect.setInsectType(insectType);
+        return insect;
+    }
+
+    /**
+     * Creates an insect of the same type and color at another position.
+     *
+     * @param position The position of the new insect.
+     * @return The new insect.
+     */
+    public Insect copyAt(EntityPosition position) {
+        try {
+            return create(insectType, position, color);
+        } catch (InvalidInsectTypeException e) {
+            throw new IllegalStateException("Insect without a known type: " + insectType, e);
+        }
+    }
+
+    /**
+     * Abstract method to get the best direction for the insect to move based on board conditions.
+     *
+     * @param board The board containing entities.
+     * @return The best direction for the insect to move.
+     */
+    public abstract Direction getBestDirection(Board board);
+
+    /**
+     * Abstract method to perform movement in a specific direction and interact with entities on the way.
+     *
+     * @param dir   The direction of movement.
+     * @param board The board containing entities.
+     * @return The sum of values obtained during movement (e.g., consumed food).
+     */
+    public abstract int travelDirection(Direction dir, Board board);
+
+    /**
+     * Gets the number of cells the insect covers with one step.
+     *
+     * @return The step length of the insect.
+     */
+    public int getStride() {
+        return 1;
+    }
+}
+
+/**
+ * A class representing a butterfly on the board, capable of orthogonal movement.
+ */
+class Butterfly extends Insect implements OrthogonalMoving {
+
+    /**
+     * Constructs a butterfly with the given position and color.
+     *
+     * @param entityPosition The initial position of the butterfly.
+     * @param color          The color of the butterfly.
+     */
+    public Butterfly(EntityPosition entityPosition, InsectColor color) {
+        super(entityPosition, color);
+    }
+
+    @Override
+    public Direction getBestDirection(Board board) {
+        Direction bestDir = Direction.getOrthogonalDirections().get(0);
+        int bestValue = this.getOrthogonalDirectionVisibleValue(bestDir, this.entityPosition, board);
+        for (Direction dir : Direction.getOrthogonalDirections()) {
+            int value = this.getOrthogonalDirectionVisibleValue(dir, this.entityPosition, board);
+            if (value > bestValue) {
+                bestValue = value;
+                bestDir = dir;
+            }
+        }
+        return bestDir;
+    }
+
+    @Override
+    public int travelDirection(Direction dir, Board board) {
+        return this.travelOrthogonally(dir, this.entityPosition, this.color, board);
+    }
+}
+/**
+ * A class representing an ant on the board, capable of both orthogonal and diagonal movement.
+ */
+class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
+
+    /**
+     * Constructs an ant with the given position and color.
+     *
+     * @param entityPosition The initial position of the ant.
+     * @param color          The color of the ant.
+     */
+    public Ant(EntityPosition entityPosition, InsectColor color) {
+        super(entityPosition, color);
+    }
+
+    @Override
+    public Direction getBestDirection(Board board) {
+        Direction bestDir = Direction.getAllDirections().get(0);
+        int bestValue = this.getDiagonalDirectionVisibleValue(bestDir, this.entityPosition, board);
+        for (Direction dir : Direction.getAllDirections()) {
+            int value = this.getDiagonalDirectionVisibleValue(dir, this.entityPosition, board);
+            if (value > bestValue) {
+                bestValue = value;
+                bestDir = dir;
+            }
+        }
+        return bestDir;
+    }
+
+    @Override
+    public int travelDirection(Direction dir, Board board) {
+        return this.travelOrthogonally(dir, this.entityPosition, this.color, board);
+    }
+}
+
+/**
+ * A class representing a spider on the board, capable of diagonal movement.
+ */
+class Spider extends Insect implements DiagonalMoving {
+
+    /**
+     * Constructs a spider with the given position and color.
+     *
+     * @param entityPosition The initial position of the spider.
+     * @param color          The color of the spider.
+     */
+    public Spider(EntityPosition entityPosition, InsectColor color) {
+        super(entityPosition, color);
+    }
+
+    @Override
+    public Direction getBestDirection(Board board) {
+        Direction bestDir = Direction.getDiagonalDirections().get(0);
+        int bestValue = this.getDiagonalDirectionVisibleValue(bestDir, this.entityPosition, board);
+        for (Direction dir : Direction.getDiagonalDirections()) {
+            int value = this.getDiagonalDirectionVisibleValue(dir, this.entityPosition, board);
+            if (value > bestValue) {
+                bestValue = value;
+                bestDir = dir;
+            }
+        }
+        return bestDir;
+    }
+
+    @Override
+    public int travelDirection(Direction dir, Board board) {
+        return this.travelDiagonally(dir, this.entityPosition, this.color, board);
+    }
+}
+
+/**
+ * A class representing a grasshopper on the board, capable of orthogonal movement and jumping.
+ */
+class Grasshopper extends Insect {
+
+    /**
+     * Constructs a grasshopper with the given position and color.
+     *
+     * @param entityPosition The initial position of the grasshopper.
+     * @param color          The color of the grasshopper.
+     */
+    public Grasshopper(EntityPosition entityPosition, InsectColor color) {
+        super(entityPosition, color);
+    }
+
+    @Override
+    public Direction getBestDirection(Board board) {
+        Direction bestDir = Direction.getOrthogonalDirections().get(0);
+        int bestValue = this.getDirectionVisibleValue(bestDir, this.entityPosition, board);
+        for (Direction dir : Direction.getOrthogonalDirections()) {
+            int value = this.getDirectionVisibleValue(dir, this.entityPosition, board);
+            if (value > bestValue) {
+                bestValue = value;
+                bestDir = dir;
+            }
+        }
+        return bestDir;
+    }
+
+    /**
+     * Gets the visible value in a specific direction for the grasshopper, considering its jumping ability.
+     *
+     * @param dir            The direction to check.
+     * @param entityPosition The current position of the grasshopper.
+     * @param board          The board containing entities.
+     * @return The visible value in the specified direction.
+     */
+    public int getDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
+                                        Board board) {
+        // Double motion
+        return board.getVisibleFood(entityPosition.getX(), entityPosition.getY(), dir, 2);
+    }
+
+    @Override
+    public int getStride() {
+        return 2;
+    }
+
+    @Override
+    public int travelDirection(Direction dir, Board board) {
+        // Double motion
+        return board.travel(entityPosition, dir, 2, this.color);
+    }
+}
+
+/**
+ * A class representing the game board.
+ */
+class Board {
+
+    private final BoardStorage storage;
+    private final EntityStore store;
+    private final LineLocks locks = new LineLocks();
+    private final FoodIndex foodIndex;
+    private final OccupancyIndex occupancy;
+    private final VisibleFoodCache cache = new VisibleFoodCache();
+    private final int size;
+    private volatile boolean concurrentReads;
+    private boolean lockStorage;
+    private SimulationMetrics metrics = SimulationMetrics.DISABLED;
+
+    /**
+     * Constructs an empty board with the given size.
+     *
+     * @param boardSize The size of the board.
+     */
+    public Board(int boardSize) {
+        this(BoardStorage.forSize(boardSize), boardSize);
+    }
+
+    /**
+     * Constructs a board over the given storage and size.
+     *
+     * @param storage   The cell storage of the board.
+     * @param boardSize The size of the board.
+     */
+    public Board(BoardStorage storage, int boardSize) {
+        this(storage, boardSize, new EntityStore());
+    }
+
+    private Board(BoardStorage storage, int boardSize, EntityStore store) {
+        this.storage = storage;
+        this.size = boardSize;
+        this.store = store;
+        this.foodIndex = new FoodIndex(store, locks, boardSize);
+        this.occupancy = new OccupancyIndex(locks, boardSize);
+    }
+
+    /**
+     * Forks the board: the fork starts with the same cells, food and insects and then changes
+     * independently of this board. The cells are shared copy-on-write when the storage supports it,
+     * as {@link TiledBoardStorage} does, so a fork costs time in the number of entities rather than
+     * the area of the board; the food and occupancy indexes are rebuilt from the entities.
+     * The insects of the fork are new objects at the same cells, found with
+     * {@link #getEntity(EntityPosition)}. Several threads may fork a board that is not being changed.
+     *
+     * @return The fork, counting into the same metrics.
+     * @throws UnsupportedOperationException If the storage cannot be forked.
+     */
+    public synchronized Board fork() {
+        Board copy = new Board(storage.fork(), size, store.fork());
+        copy.metrics = metrics;
+        EntityStore entities = copy.store;
+        for (int id = 1; id < entities.getCount(); id++) {
+            byte kind = entities.getKind(id);
+            if (kind == EntityStore.FOOD) {
+                copy.foodIndex.add(id);
+            } else if (kind == EntityStore.INSECT) {
+                copy.occupancy.add(entities.getColor(id), entities.getX(id), entities.getY(id));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the size of the board.
+     *
+     * @return The size of the board.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public SimulationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics that lookups, visible-food queries and travels on this board count into.
+     *
+     * @param metrics The metrics.
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks if a position is within the bounds of the board.
+     *
+     * @param position The position to check.
+     * @return True if the position is on the board, false otherwise.
+     */
+    public boolean onBoard(EntityPosition position) {
+        return onBoard(position.getX(), position.getY());
+    }
+
+    /**
+     * Checks if a cell is within the bounds of the board.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return True if the cell is on the board, false otherwise.
+     */
+    public boolean onBoard(int x, int y) {
+        return x <= size && y <= size && x >= 1 && y >= 1;
+    }
+
+    /**
+     * Erases an entity from the board at the specified position.
+     *
+     * @param position The position of the entity to erase.
+     */
+    public void erase(EntityPosition position) {
+        erase(position.getX(), position.getY());
+    }
+
+    /**
+     * Erases an entity from the board at the specified cell.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     */
+    public void erase(int x, int y) {
+        int id = cell(x, y);
+        if (id == EntityStore.NONE) {
+            return;
+        }
+        byte kind = store.getKind(id);
+        if (kind == EntityStore.FOOD) {
+            foodIndex.remove(id);
+        } else if (kind == EntityStore.INSECT) {
+            occupancy.remove(store.getColor(id), x, y);
+        }
+        store.remove(id);
+        clearCell(x, y);
+    }
+
+    /**
+     * Adds an entity to the board, checking for overlapping entities.
+     *
+     * @param entity The entity to add.
+     * @throws TwoEntitiesOnSamePositionException if there are two entities in the same position.
+     */
+    public void addEntity(BoardEntity entity) throws TwoEntitiesOnSamePositionException {
+        int x = entity.entityPosition.getX();
+        int y = entity.entityPosition.getY();
+        if (entity instanceof FoodPoint) {
+            addFood(x, y, ((FoodPoint) entity).value);
+            return;
+        }
+        if (cell(x, y) != EntityStore.NONE) {
+            throw new TwoEntitiesOnSamePositionException();
+        }
+        Insect insect = (Insect) entity;
+        setCell(x, y, store.addInsect(insect, x, y));
+        occupancy.add(insect.color, x, y);
+    }
+
+    /**
+     * Adds a food point to the board without creating an object for it.
+     *
+     * @param x     The x-coordinate of the food point.
+     * @param y     The y-coordinate of the food point.
+     * @param value The value of the food point.
+     * @throws TwoEntitiesOnSamePositionException if the cell is already taken.
+     */
+    public void addFood(int x, int y, int value) throws TwoEntitiesOnSamePositionException {
+        if (cell(x, y) != EntityStore.NONE) {
+            throw new TwoEntitiesOnSamePositionException();
+        }
+        int id = store.addFood(x, y, value);
+        setCell(x, y, id);
+        foodIndex.add(id);
+    }
+
+    /**
+     * Gets the entity at the specified position on the board.
+     *
+     * @param position The position to query.
+     * @return The entity at the specified position, or null if no entity is present.
+     */
+    public BoardEntity getEntity(EntityPosition position) {
+        return getEntity(position.getX(), position.getY());
+    }
+
+    /**
+     * Gets the entity at the specified cell on the board.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The entity at the specified cell, or null if no entity is present. Insects are
+     *         returned as the objects that were added; food points as fresh views of the store.
+     */
+    public BoardEntity getEntity(int x, int y) {
+        return store.view(lookup(x, y));
+    }
+
+    private int lookup(int x, int y) {
+        metrics.recordLookup();
+        return cell(x, y);
+    }
+
+    private int cell(int x, int y) {
+        if (lockStorage) {
+            synchronized (storage) {
+                return storage.get(x, y);
+            }
+        }
+        return storage.get(x, y);
+    }
+
+    private void setCell(int x, int y, int id) {
+        if (lockStorage) {
+            synchronized (storage) {
+                storage.put(x, y, id);
+            }
+            return;
+        }
+        storage.put(x, y, id);
+    }
+
+    private void clearCell(int x, int y) {
+        if (lockStorage) {
+            synchronized (storage) {
+                storage.remove(x, y);
+            }
+            return;
+        }
+        storage.remove(x, y);
+    }
+
+    /**
+     * Moves an entity to another cell of the board.
+     *
+     * @param entity      The entity to move.
+     * @param destination The new position of the entity; must be free unless it is the current one.
+     */
+    public void moveEntity(BoardEntity entity, EntityPosition destination) {
+        int x = entity.entityPosition.getX();
+        int y = entity.entityPosition.getY();
+        int toX = destination.getX();
+        int toY = destination.getY();
+        int id = cell(x, y);
+        entity.setEntityPosition(destination);
+        if (store.getKind(id) == EntityStore.FOOD) {
+            // Food ids stay in the order food was placed, so moved food is placed anew
+            int value = store.getValue(id);
+            erase(x, y);
+            int moved = store.addFood(toX, toY, value);
+            setCell(toX, toY, moved);
+            foodIndex.add(moved);
+            return;
+        }
+        InsectColor color = store.getColor(id);
+        occupancy.remove(color, x, y);
+        clearCell(x, y);
+        store.move(id, toX, toY);
+        setCell(toX, toY, id);
+        occupancy.add(color, toX, toY);
+    }
+
+    /**
+     * Finds where an insect travelling from a cell comes to rest: the last cell it reaches before
+     * an insect of another color or the edge of the board, backed off past cells held by allies.
+     * Food does not stop a traveller, so the result does not depend on what it eats on the way.
+     *
+     * @param start  The starting position of the insect.
+     * @param dir    The direction of travel.
+     * @param stride The step length of the insect.
+     * @param color  The color of the insect.
+     * @return The resting position, which is the start position if no free cell is reached.
+     */
+    public EntityPosition getTravelEnd(EntityPosition start, Direction dir, int stride, InsectColor color) {
+        BoardLine line = dir.getLine();
+        int offset = line.offsetOf(start.getX(), start.getY());
+        int lineId = line.lineOf(start.getX(), start.getY(), size);
+        int enemy = occupancy.nearestEnemy(color, line, lineId, offset, dir.getLineStep(), stride);
+        int steps = enemy < 0 ? stepsToEdge(start, dir) / stride : Math.abs(enemy - offset) / stride - 1;
+        for (; steps > 0; steps--) {
+            int x = start.getX() + steps * stride * dir.getDx();
+            int y = start.getY() + steps * stride * dir.getDy();
+            if (store.getKind(lookup(x, y)) != EntityStore.INSECT) {
+                return new EntityPosition(x, y);
+            }
+        }
+        return start;
+    }
+
+    private int stepsToEdge(EntityPosition start, Direction dir) {
+        return stepsToEdge(start.getX(), start.getY(), dir);
+    }
+
+    private int stepsToEdge(int x, int y, Direction dir) {
+        int steps = Integer.MAX_VALUE;
+        if (dir.getDx() != 0) {
+            steps = dir.getDx() > 0 ? size - x : x - 1;
+        }
+        if (dir.getDy() != 0) {
+            steps = Math.min(steps, dir.getDy() > 0 ? size - y : y - 1);
+        }
+        return steps;
+    }
+
+    /**
+     * Moves a traveller from a cell along a ray, eating every food point it lands on until it meets
+     * an insect of another color or leaves the board. Instead of visiting every cell, it jumps from
+     * food point to food point and stops at the nearest enemy found in the occupancy bitsets.
+     *
+     * @param start  The starting position of the traveller.
+     * @param dir    The direction of travel.
+     * @param stride The step length of the traveller: 1 for walking insects, 2 for jumping ones.
+     * @param color  The color of the traveller.
+     * @return The sum of the values of the food eaten.
+     */
+    public int travel(EntityPosition start, Direction dir, int stride, InsectColor color) {
+        int x = start.getX();
+        int y = start.getY();
+        BoardLine line = dir.getLine();
+        int lineId = line.lineOf(x, y, size);
+        int offset = line.offsetOf(x, y);
+        int step = dir.getLineStep();
+        int enemy = occupancy.nearestEnemy(color, line, lineId, offset, step, stride);
+        int eaten = 0;
+        int food = foodIndex.nextFood(x, y, dir, stride, offset);
+        while (food >= 0 && (enemy < 0 || (enemy - food) * step > 0)) {
+            int foodX = line.xOf(lineId, food, size);
+            int foodY = line.yOf(lineId, food, size);
+            int id = lookup(foodX, foodY);
+            if (store.consume(id)) {
+                eaten += store.getValue(id);
+                foodIndex.remove(id);
+                clearCell(foodX, foodY);
+            }
+            food = foodIndex.nextFood(x, y, dir, stride, food);
+        }
+        metrics.recordTravel(eaten, enemy >= 0);
+        return eaten;
+    }
+
+    /**
+     * Lists the food points a travel would eat, without eating them. The travel is the one of
+     * {@link #travel(EntityPosition, Direction, int, InsectColor)} with the same arguments.
+     *
+     * @param start  The starting position of the traveller.
+     * @param dir    The direction of travel.
+     * @param stride The step length of the traveller.
+     * @param color  The color of the traveller.
+     * @return The cells of the food points, as packed by {@link SparseBoardStorage#pack(int, int)}.
+     */
+    public long[] getTravelFood(EntityPosition start, Direction dir, int stride, InsectColor color) {
+        int x = start.getX();
+        int y = start.getY();
+        BoardLine line = dir.getLine();
+        int lineId = line.lineOf(x, y, size);
+        int step = dir.getLineStep();
+        int enemy = occupancy.nearestEnemy(color, line, lineId, line.offsetOf(x, y), step, stride);
+        long[] cells = new long[4];
+        int count = 0;
+        int food = foodIndex.nextFood(x, y, dir, stride, line.offsetOf(x, y));
+        while (food >= 0 && (enemy < 0 || (enemy - food) * step > 0)) {
+            if (count == cells.length) {
+                cells = Arrays.copyOf(cells, count * 2);
+            }
+            cells[count++] = SparseBoardStorage.pack(line.xOf(lineId, food, size), line.yOf(lineId, food, size));
+            food = foodIndex.nextFood(x, y, dir, stride, food);
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    /**
+     * Gets the food points remaining on the board.
+     *
+     * @return The food points, in the order they were placed.
+     */
+    public List<FoodPoint> getFoodPoints() {
+        return foodIndex.getFoods();
+    }
+
+    /**
+     * Gets the total value of food visible from a cell in a direction, up to the edge of the board.
+     *
+     * @param x      The x-coordinate of the cell.
+     * @param y      The y-coordinate of the cell.
+     * @param dir    The direction to look in.
+     * @param stride The step length of the ray: 1 for walking insects, 2 for jumping ones.
+     * @return The sum of food values on the ray, excluding the starting cell.
+     */
+    public int getVisibleFood(int x, int y, Direction dir, int stride) {
+        if (metrics.isEnabled()) {
+            metrics.recordRay(stepsToEdge(x, y, dir) / stride);
+        }
+        if (concurrentReads) {
+            return foodIndex.getVisibleFood(x, y, dir, stride);
+        }
+        long key = VisibleFoodCache.key(x, y, dir, stride);
+        int version = foodIndex.getLineVersion(dir.getLine(), x, y);
+        long cached = cache.get(key, version);
+        if (cached != VisibleFoodCache.MISS) {
+            return (int) cached;
+        }
+        int value = foodIndex.getVisibleFood(x, y, dir, stride);
+        cache.put(key, version, value);
+        return value;
+    }
+
+    /**
+     * Gets the total value of food in an axis-aligned rectangle of cells. Corners may be given in
+     * any order and may lie off the board. The answer takes O(log^2 m) for m food points and
+     * stays current as food is eaten; it is safe to call from best-direction strategies.
+     * Food along a ray is answered by {@link #getVisibleFood(int, int, Direction, int)}.
+     *
+     * @param x1 The x-coordinate of one corner.
+     * @param y1 The y-coordinate of one corner.
+     * @param x2 The x-coordinate of the opposite corner.
+     * @param y2 The y-coordinate of the opposite corner.
+     * @return The sum of food values in the rectangle, borders included.
+     */
+    public long getFoodInRectangle(int x1, int y1, int x2, int y2) {
+        return foodIndex.getRectangleFood(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    /**
+     * Builds the lazily built food index now and bypasses the visible-food cache, so any number of
+     * threads may query the visible food concurrently until {@link #endConcurrentReads()}.
+     * The board must not be modified in between.
+     */
+    public void beginConcurrentReads() {
+        foodIndex.build();
+        concurrentReads = true;
+    }
+
+    /**
+     * Ends a phase of concurrent reads and turns the visible-food cache back on.
+     */
+    public void endConcurrentReads() {
+        concurrentReads = false;
+    }
+
+    /**
+     * Releases the storage of the board. The board must not be used afterwards.
+     *
+     * @throws IOException If a file backing the storage cannot be removed.
+     */
+    public void close() throws IOException {
+        storage.close();
+    }
+
+    /**
+     * Lets several threads move insects at once until {@link #endConcurrentMoves()}.
+     * Updates of the food and occupancy indexes lock the stripe of each line they touch, food
+     * is consumed by compare-and-set so it is eaten at most once, and a storage whose cells are
+     * not independent is locked as a whole. The caller must keep the moves apart: no move may
+     * write a cell on a line another concurrent move reads.
+     */
+    public void beginConcurrentMoves() {
+        beginConcurrentReads();
+        locks.enable();
+        lockStorage = !storage.isConcurrent();
+    }
+
+    /**
+     * Ends a phase of concurrent moves.
+     */
+    public void endConcurrentMoves() {
+        lockStorage = false;
+        locks.disable();
+        endConcurrentReads();
+    }
+
+    /**
+     * Gets the number of visible-food queries answered from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Gets the number of visible-food queries that had to be computed.
+     *
+     * @return The number of cache misses.
+     */
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Gets a stamp that changes whenever food on any line through a cell changes.
+     * Two equal stamps mean every ray from the cell sees the same food.
+     *
+     * @param position The cell to stamp.
+     * @return The stamp of the lines through the cell.
+     */
+    public long getLineStamp(EntityPosition position) {
+        return foodIndex.getLineStamp(position.getX(), position.getY());
+    }
+
+    /**
+     * Gets the direction for an insect on the board.
+     *
+     * @param insect The insect for which to determine the direction.
+     * @return The direction for the insect.
+     */
+    public Direction getDirection(Insect insect) {
+        return null; // Not implemented
+    }
+
+    /**
+     * Gets the sum of directions for an insect on the board.
+     *
+     * @param insect The insect for which to determine the direction sum.
+     * @return The sum of directions for the insect.
+     */
+    public int getDirectionSum(Insect insect) {
+        return 0; // Not implemented
+    }
+}
+
+/**
+ * The EntityStore class keeps the entities of a board column by column: one primitive array per
+ * attribute, indexed by an entity id. The board storage holds ids, so scans, travel and eating
+ * read coordinates, kinds and food values from flat arrays instead of chasing entity objects.
+ * Ids are never reused, and id 0 is reserved for an empty cell.
+ * Insects keep their objects for their behavior and are registered as views of their ids;
+ * food points exist only as columns and are materialized on demand.
+ */
+class EntityStore {
+    /**
+     * The id of no entity, stored in empty cells.
+     */
+    static final int NONE = 0;
+    /**
+     * The kind of an id that is unused or whose entity has left the board.
+     */
+    static final byte REMOVED = 0;
+    /**
+     * The kind of a food point.
+     */
+    static final byte FOOD = 1;
+    /**
+     * The kind of an insect.
+     */
+    static final byte INSECT = 2;
+
+    private static final InsectColor[] COLORS = InsectColor.values();
+    private static final int INITIAL_CAPACITY = 16;
+    private static final VarHandle KINDS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private byte[] colors = new byte[INITIAL_CAPACITY];
+    private byte[] species = new byte[INITIAL_CAPACITY];
+    private Insect[] insects = new Insect[INITIAL_CAPACITY];
+    private int count = 1;
+
+    /**
+     * Adds a food point.
+     *
+     * @param x     The x-coordinate of the food point.
+     * @param y     The y-coordinate of the food point.
+     * @param value The value of the food point.
+     * @return The id of the food point.
+     */
+    public int addFood(int x, int y, int value) {
+        int id = allocate(x, y, FOOD);
+        values[id] = value;
+        return id;
+    }
+
+    /**
+     * Adds an insect and registers its object as the view of its id.
+     *
+     * @param insect The insect.
+     * @param x      The x-coordinate of the insect.
+     * @param y      The y-coordinate of the insect.
+     * @return The id of the insect.
+     */
+    public int addInsect(Insect insect, int x, int y) {
+        int id = allocate(x, y, INSECT);
+        colors[id] = (byte) insect.color.ordinal();
+        species[id] = (byte) Insect.TYPES.indexOf(insect.getInsectType());
+        insects[id] = insect;
+        return id;
+    }
+
+    private int allocate(int x, int y, byte kind) {
+        if (count == kinds.length) {
+            grow(count * 2);
+        }
+        int id = count++;
+        xs[id] = x;
+        ys[id] = y;
+        kinds[id] = kind;
+        return id;
+    }
+
+    /**
+     * Copies the store for {@link Board#fork()}. Ids keep their meaning in the copy, and each
+     * insect gets a new object of its type and color at its current cell.
+     *
+     * @return The copy.
+     */
+    public EntityStore fork() {
+        EntityStore copy = new EntityStore();
+        copy.xs = xs.clone();
+        copy.ys = ys.clone();
+        copy.values = values.clone();
+        copy.kinds = kinds.clone();
+        copy.colors = colors.clone();
+        copy.species = species.clone();
+        copy.insects = new Insect[insects.length];
+        copy.count = count;
+        for (int id = 1; id < count; id++) {
+            if (insects[id] != null) {
+                copy.insects[id] = insects[id].copyAt(new EntityPosition(xs[id], ys[id]));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the number of ids handed out, including the reserved {@link #NONE}.
+     *
+     * @return One more than the largest id.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    private void grow(int capacity) {
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        species = Arrays.copyOf(species, capacity);
+        insects = Arrays.copyOf(insects, capacity);
+    }
+
+    /**
+     * Marks an entity as removed from the board.
+     *
+     * @param id The id of the entity.
+     */
+    public void remove(int id) {
+        kinds[id] = REMOVED;
+        insects[id] = null;
+    }
+
+    /**
+     * Takes a food point off the board, atomically, so concurrent travellers eat it at most once.
+     *
+     * @param id The id of the food point.
+     * @return True if this call ate it, false if it was already eaten or is no food point.
+     */
+    public boolean consume(int id) {
+        return KINDS.compareAndSet(kinds, id, FOOD, REMOVED);
+    }
+
+    /**
+     * Moves an entity to another cell.
+     *
+     * @param id The id of the entity.
+     * @param x  The new x-coordinate.
+     * @param y  The new y-coordinate.
+     */
+    public void move(int id, int x, int y) {
+        xs[id] = x;
+        ys[id] = y;
+    }
+
+    /**
+     * Gets the kind of an entity.
+     *
+     * @param id The id of the entity, or {@link #NONE}.
+     * @return {@link #FOOD}, {@link #INSECT} or {@link #REMOVED}.
+     */
+    public byte getKind(int id) {
+        return kinds[id];
+    }
+
+    public int getX(int id) {
+        return xs[id];
+    }
+
+    public int getY(int id) {
+        return ys[id];
+    }
+
+    public int getValue(int id) {
+        return values[id];
+    }
+
+    public InsectColor getColor(int id) {
+        return COLORS[colors[id]];
+    }
+
+    /**
+     * Gets the species of an insect.
+     *
+     * @param id The id of the insect.
+     * @return The index of its type in {@link Insect#TYPES}, or -1 if it has none.
+     */
+    public int getSpecies(int id) {
+        return species[id];
+    }
+
+    /**
+     * Gets an object for an entity: the registered object of an insect, or a new view of a food point.
+     *
+     * @param id The id of the entity, or {@link #NONE}.
+     * @return The entity, or null if the id holds none.
+     */
+    public BoardEntity view(int id) {
+        if (kinds[id] == FOOD) {
+            return new FoodPoint(new EntityPosition(xs[id], ys[id]), values[id]);
+        }
+        return insects[id];
+    }
+}
+
+/**
+ * The BoardStorage interface represents the cell storage behind a board.
+ * Cells are addressed by their primitive coordinates, so no key objects are built per lookup,
+ * and hold the ids of the {@link EntityStore} rather than entity objects.
+ */
+interface BoardStorage {
+    /**
+     * The largest number of cells for which the dense layout is chosen.
+     */
+    long DENSE_CELL_LIMIT = 1L << 22;
+
+    /**
+     * Chooses the storage layout for a board of the given size.
+     * Small and medium boards get a dense array, large boards get a primitive hash table.
+     *
+     * @param boardSize The size of the board.
+     * @return The storage for the board.
+     */
+    static BoardStorage forSize(int boardSize) {
+        if ((long) boardSize * boardSize <= DENSE_CELL_LIMIT) {
+            return new DenseBoardStorage(boardSize);
+        }
+        return new SparseBoardStorage();
+    }
+
+    /**
+     * Chooses the storage for a board of the given size as configured: one that forks cheaply
+     * when variants are explored, off the heap if asked for, otherwise by {@link #forSize(int)}.
+     *
+     * @param boardSize The size of the board.
+     * @param config    The settings of the run.
+     * @return The storage for the board.
+     * @throws IOException If the file of an off-heap board cannot be created.
+     */
+    static BoardStorage forConfig(int boardSize, SimulationConfig config) throws IOException {
+        if (config.getExploreVariants() > 0) {
+            // A sparse table already forks in time proportional to its entities
+            if ((long) boardSize * boardSize <= DENSE_CELL_LIMIT) {
+                return new TiledBoardStorage(boardSize);
+            }
+            return new SparseBoardStorage();
+        }
+        if (config.isOffHeap()) {
+            return OffHeapBoardStorage.create(boardSize, config.getOffHeapDirectory());
+        }
+        return forSize(boardSize);
+    }
+
+    /**
+     * Gets the id of the entity stored at a cell.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The id of the entity at the cell, or {@link EntityStore#NONE} if the cell is empty.
+     */
+    int get(int x, int y);
+
+    /**
+     * Stores an entity id at a cell, replacing any previous one.
+     *
+     * @param x  The x-coordinate of the cell.
+     * @param y  The y-coordinate of the cell.
+     * @param id The id of the entity to store.
+     */
+    void put(int x, int y, int id);
+
+    /**
+     * Clears a cell.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     */
+    void remove(int x, int y);
+
+    /**
+     * Checks whether different cells may be read and written by different threads at once.
+     *
+     * @return True if cells are independent of each other.
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Copies the storage for {@link Board#fork()}. The copy and this storage change
+     * independently afterwards.
+     *
+     * @return The copy.
+     * @throws UnsupportedOperationException If the storage cannot be copied.
+     */
+    default BoardStorage fork() {
+        throw new UnsupportedOperationException("This board storage cannot be forked");
+    }
+
+    /**
+     * Releases what the storage holds outside the heap.
+     *
+     * @throws IOException If a backing file cannot be closed or removed.
+     */
+    default void close() throws IOException {
+    }
+}
+
+/**
+ * A board storage keeping every cell in one flat array indexed by (x - 1) * size + (y - 1).
+ */
+class DenseBoardStorage implements BoardStorage {
+    private final int[] cells;
+    private final int size;
+
+    /**
+     * Constructs a dense storage for a board of the given size.
+     *
+     * @param boardSize The size of the board.
+     */
+    DenseBoardStorage(int boardSize) {
+        this(boardSize, new int[boardSize * boardSize]);
+    }
+
+    private DenseBoardStorage(int boardSize, int[] cells) {
+        this.size = boardSize;
+        this.cells = cells;
+    }
+
+    private int index(int x, int y) {
+        return (x - 1) * size + (y - 1);
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return cells[index(x, y)];
+    }
+
+    @Override
+    public void put(int x, int y, int id) {
+        cells[index(x, y)] = id;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        cells[index(x, y)] = EntityStore.NONE;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    /**
+     * Copies every cell; {@link TiledBoardStorage} forks without copying the untouched ones.
+     */
+    @Override
+    public BoardStorage fork() {
+        return new DenseBoardStorage(size, cells.clone());
+    }
+}
+
+/**
+ * A board storage for large sparse boards: an open-addressing hash table keyed by the packed
+ * coordinate (x << 32 | y) with linear probing and backward-shift deletion.
+ */
+class SparseBoardStorage implements BoardStorage {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int[] values;
+    private int count;
+
+    /**
+     * Constructs an empty sparse storage.
+     */
+    SparseBoardStorage() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+    }
+
+    private SparseBoardStorage(long[] keys, int[] values, int count) {
+        this.keys = keys;
+        this.values = values;
+        this.count = count;
+    }
+
+    /**
+     * Packs a cell into a single key. Coordinates start from 1, so a packed key is never EMPTY.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The packed key.
+     */
+    static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        int i = find(pack(x, y));
+        return i < 0 ? EntityStore.NONE : values[i];
+    }
+
+    @Override
+    public void put(int x, int y, int id) {
+        if (id == EntityStore.NONE) {
+            remove(x, y);
+            return;
+        }
+        if ((count + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        long key = pack(x, y);
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] = id;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = id;
+        count++;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int i = find(pack(x, y));
+        if (i < 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        // Shift the following entries of the probe chain back, so no tombstones are needed
+        int hole = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        values[hole] = EntityStore.NONE;
+        count--;
+    }
+
+    @Override
+    public BoardStorage fork() {
+        return new SparseBoardStorage(keys.clone(), values.clone(), count);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] != EMPTY) {
+                int i = slot(oldKeys[k], mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[k];
+                values[i] = oldValues[k];
+            }
+        }
+    }
+}
+
+/**
+ * A board storage that forks without copying its cells. The cells are cut into tiles of 64 x 64
+ * that are allocated on the first write into them. A fork shares every tile with its origin, and
+ * whichever of the two writes to a shared tile first copies it, so a fork costs one reference per
+ * tile and then one tile per region it changes. Shared tiles are never written, so forks can be
+ * simulated on different threads; a single storage is not safe for concurrent writes, because two
+ * writers could both copy the same shared tile.
+ */
+class TiledBoardStorage implements BoardStorage {
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_MASK = (1 << TILE_SHIFT) - 1;
+    private static final int TILE_CELLS = 1 << (2 * TILE_SHIFT);
+
+    private final int tilesPerSide;
+    private final int[][] tiles;
+    private final boolean[] owned;
+
+    /**
+     * Constructs an empty tiled storage for a board of the given size.
+     *
+     * @param boardSize The size of the board.
+     */
+    TiledBoardStorage(int boardSize) {
+        this((boardSize + TILE_MASK) >> TILE_SHIFT, new int[square((boardSize + TILE_MASK) >> TILE_SHIFT)][]);
+    }
+
+    private TiledBoardStorage(int tilesPerSide, int[][] tiles) {
+        this.tilesPerSide = tilesPerSide;
+        this.tiles = tiles;
+        this.owned = new boolean[tiles.length];
+    }
+
+    private static int square(int tilesPerSide) {
+        return tilesPerSide * tilesPerSide;
+    }
+
+    private int tile(int x, int y) {
+        return ((x - 1) >> TILE_SHIFT) * tilesPerSide + ((y - 1) >> TILE_SHIFT);
+    }
+
+    private static int offset(int x, int y) {
+        return (((x - 1) & TILE_MASK) << TILE_SHIFT) | ((y - 1) & TILE_MASK);
+    }
+
+    /**
+     * Gets a tile this storage may write to, allocating it or copying it from a shared one.
+     *
+     * @param t The index of the tile.
+     * @return The tile.
+     */
+    private int[] writable(int t) {
+        int[] tile = tiles[t];
+        if (tile != null && owned[t]) {
+            return tile;
+        }
+        tile = tile == null ? new int[TILE_CELLS] : tile.clone();
+        tiles[t] = tile;
+        owned[t] = true;
+        return tile;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        int[] tile = tiles[tile(x, y)];
+        return tile == null ? EntityStore.NONE : tile[offset(x, y)];
+    }
+
+    @Override
+    public void put(int x, int y, int id) {
+        writable(tile(x, y))[offset(x, y)] = id;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int t = tile(x, y);
+        int[] tile = tiles[t];
+        // Clearing an empty cell must not copy a shared tile
+        if (tile != null && tile[offset(x, y)] != EntityStore.NONE) {
+            writable(t)[offset(x, y)] = EntityStore.NONE;
+        }
+    }
+
+    /**
+     * Shares all tiles with the copy; from now on both copy a tile before writing to it.
+     */
+    @Override
+    public BoardStorage fork() {
+        Arrays.fill(owned, false);
+        return new TiledBoardStorage(tilesPerSide, tiles.clone());
+    }
+}
+
+/**
+ * A board storage outside the Java heap for boards too large for a dense array on it, up to
+ * 10^5 x 10^5 cells and beyond. The cells form one dense int array of d * d entries, split into
+ * chunks of 16 MiB that are allocated on the first write into them, so reading an untouched
+ * region costs nothing. Chunks are direct buffers, or mappings of a sparse temporary file when a
+ * directory is given, which leaves paging to the operating system. The heap holds only the chunk
+ * table, so garbage collection does not grow with the board.
+ * Direct buffers count against -XX:MaxDirectMemorySize; mapped files do not.
+ */
+class OffHeapBoardStorage implements BoardStorage {
+    private static final int CHUNK_SHIFT = 22;
+    private static final int CHUNK_CELLS = 1 << CHUNK_SHIFT;
+    private static final long CHUNK_BYTES = (long) CHUNK_CELLS * Integer.BYTES;
+
+    private final int size;
+    private final AtomicReferenceArray<IntBuffer> chunks;
+    private final FileChannel channel;
+    private final Path file;
+
+    private OffHeapBoardStorage(int boardSize, FileChannel channel, Path file) {
+        this.size = boardSize;
+        this.channel = channel;
+        this.file = file;
+        long cells = (long) boardSize * boardSize;
+        chunks = new AtomicReferenceArray<>((int) ((cells + CHUNK_CELLS - 1) >>> CHUNK_SHIFT));
+    }
+
+    /**
+     * Creates an empty off-heap storage.
+     *
+     * @param boardSize The size of the board.
+     * @param directory The directory of the backing file, or null to use direct memory.
+     * @return The storage.
+     * @throws IOException If the backing file cannot be created.
+     */
+    static OffHeapBoardStorage create(int boardSize, Path directory) throws IOException {
+        if (directory == null) {
+            return new OffHeapBoardStorage(boardSize, null, null);
+        }
+        Path file = Files.createTempFile(directory, "board", ".cells");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new OffHeapBoardStorage(boardSize, channel, file);
+    }
+
+    private long index(int x, int y) {
+        return (long) (x - 1) * size + (y - 1);
+    }
+
+    @Override
+    public int get(int x, int y) {
+        long index = index(x, y);
+        IntBuffer chunk = chunks.get((int) (index >>> CHUNK_SHIFT));
+        return chunk == null ? EntityStore.NONE : chunk.get((int) index & (CHUNK_CELLS - 1));
+    }
+
+    @Override
+    public void put(int x, int y, int id) {
+        long index = index(x, y);
+        chunk((int) (index >>> CHUNK_SHIFT)).put((int) index & (CHUNK_CELLS - 1), id);
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        long index = index(x, y);
+        IntBuffer chunk = chunks.get((int) (index >>> CHUNK_SHIFT));
+        if (chunk != null) {
+            chunk.put((int) index & (CHUNK_CELLS - 1), EntityStore.NONE);
+        }
+    }
+
+    private IntBuffer chunk(int number) {
+        IntBuffer chunk = chunks.get(number);
+        if (chunk == null) {
+            synchronized (chunks) {
+                chunk = chunks.get(number);
+                if (chunk == null) {
+                    chunk = allocate(number);
+                    chunks.set(number, chunk);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    private IntBuffer allocate(int number) {
+        ByteBuffer bytes;
+        if (channel == null) {
+            bytes = ByteBuffer.allocateDirect((int) CHUNK_BYTES);
+        } else {
+            try {
+                bytes = channel.map(FileChannel.MapMode.READ_WRITE, number * CHUNK_BYTES, CHUNK_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return bytes.order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
+
+/**
+ * The FoodIndex class keeps the food of a board summed along every line, so the food visible
+ * from a cell in any direction is answered in O(log d) instead of walking to the edge.
+ * Each line holds a Fenwick tree over the offsets of its food points; the stride-2 rays of
+ * jumping insects use a second set of trees split by the parity of the offset.
+ */
+class FoodIndex {
+    private static final BoardLine[] LINES = BoardLine.values();
+
+    private final EntityStore store;
+    private final LineLocks locks;
+    private final int size;
+    private int[] foods = new int[16];
+    private int foodCount;
+    private final int[][] versions = new int[LINES.length][];
+    private LineFenwick[][] lines;
+    private LineFenwick[][] parityLines;
+    private FoodGrid grid;
+
+    /**
+     * Constructs an empty index for a board.
+     *
+     * @param store     The entity store of the board, holding the food columns.
+     * @param locks     The line locks taken while moves run concurrently.
+     * @param boardSize The size of the board.
+     */
+    FoodIndex(EntityStore store, LineLocks locks, int boardSize) {
+        this.store = store;
+        this.locks = locks;
+        this.size = boardSize;
+        for (BoardLine line : LINES) {
+            versions[line.ordinal()] = new int[line.lineCount(boardSize)];
+        }
+    }
+
+    /**
+     * Registers a food point. The trees are rebuilt lazily on the next query.
+     *
+     * @param food The id of the food point placed on the board.
+     */
+    public void add(int food) {
+        if (foodCount == foods.length) {
+            foods = Arrays.copyOf(foods, foodCount * 2);
+        }
+        foods[foodCount++] = food;
+        touch(store.getX(food), store.getY(food));
+        lines = null;
+        parityLines = null;
+        grid = null;
+    }
+
+    /**
+     * Removes a food point that is being erased from the board.
+     *
+     * @param food The id of the food point leaving the board.
+     */
+    public void remove(int food) {
+        int x = store.getX(food);
+        int y = store.getY(food);
+        int value = store.getValue(food);
+        if (grid != null) {
+            if (locks.isEnabled()) {
+                synchronized (grid) {
+                    grid.remove(x, y, value);
+                }
+            } else {
+                grid.remove(x, y, value);
+            }
+        }
+        for (BoardLine line : LINES) {
+            if (locks.isEnabled()) {
+                synchronized (locks.get(line, line.lineOf(x, y, size))) {
+                    remove(line, x, y, value);
+                }
+            } else {
+                remove(line, x, y, value);
+            }
+        }
+    }
+
+    private void remove(BoardLine line, int x, int y, int value) {
+        int offset = line.offsetOf(x, y);
+        if (lines != null) {
+            lines[line.ordinal()][key(line, x, y, 1)].remove(offset, value);
+        }
+        if (parityLines != null) {
+            parityLines[line.ordinal()][key(line, x, y, 2)].remove(offset, value);
+        }
+        versions[line.ordinal()][line.lineOf(x, y, size)]++;
+    }
+
+    /**
+     * Gets the offset of the nearest food point on a ray beyond a given offset.
+     *
+     * @param x      The x-coordinate of the start of the ray.
+     * @param y      The y-coordinate of the start of the ray.
+     * @param dir    The direction of the ray.
+     * @param stride The step length of the ray, 1 or 2.
+     * @param from   The offset along the line of the ray to search beyond.
+     * @return The offset of the nearest food point, or -1 if there is none.
+     */
+    public int nextFood(int x, int y, Direction dir, int stride, int from) {
+        LineFenwick[][] trees = stride == 1 ? getLines() : getParityLines();
+        BoardLine line = dir.getLine();
+        LineFenwick tree = trees[line.ordinal()][key(line, x, y, stride)];
+        if (tree == null) {
+            return -1;
+        }
+        return dir.getLineStep() > 0 ? tree.nextAfter(from) : tree.nextBefore(from);
+    }
+
+    /**
+     * Gets the food points still on the board.
+     *
+     * @return Views of the food points, in the order they were added.
+     */
+    public List<FoodPoint> getFoods() {
+        dropEaten();
+        List<FoodPoint> views = new ArrayList<>(foodCount);
+        for (int i = 0; i < foodCount; i++) {
+            views.add((FoodPoint) store.view(foods[i]));
+        }
+        return views;
+    }
+
+    private void dropEaten() {
+        int kept = 0;
+        for (int i = 0; i < foodCount; i++) {
+            if (store.getKind(foods[i]) == EntityStore.FOOD) {
+                foods[kept++] = foods[i];
+            }
+        }
+        foodCount = kept;
+    }
+
+    /**
+     * Builds the trees for both strides and the grid now, so later queries do not write to the index.
+     */
+    public void build() {
+        getLines();
+        getParityLines();
+        getGrid();
+    }
+
+    /**
+     * Gets the total value of food in a rectangle of cells.
+     *
+     * @param x1 The smallest x-coordinate of the rectangle.
+     * @param y1 The smallest y-coordinate of the rectangle.
+     * @param x2 The largest x-coordinate of the rectangle.
+     * @param y2 The largest y-coordinate of the rectangle.
+     * @return The sum of food values in the rectangle, borders included.
+     */
+    public long getRectangleFood(int x1, int y1, int x2, int y2) {
+        return getGrid().sum(x1, y1, x2, y2);
+    }
+
+    private FoodGrid getGrid() {
+        if (grid == null) {
+            dropEaten();
+            int[] xs = new int[foodCount];
+            int[] ys = new int[foodCount];
+            int[] values = new int[foodCount];
+            for (int i = 0; i < foodCount; i++) {
+                xs[i] = store.getX(foods[i]);
+                ys[i] = store.getY(foods[i]);
+                values[i] = store.getValue(foods[i]);
+            }
+            grid = new FoodGrid(xs, ys, values);
+        }
+        return grid;
+    }
+
+    /**
+     * Gets a stamp of the food on the four lines through a cell. The stamp changes whenever food
+     * is added to or removed from any of those lines, and only then.
+     *
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The stamp of the lines through the cell.
+     */
+    public long getLineStamp(int x, int y) {
+        long stamp = 0;
+        for (BoardLine line : LINES) {
+            stamp += versions[line.ordinal()][line.lineOf(x, y, size)];
+        }
+        return stamp;
+    }
+
+    /**
+     * Gets the version of one line through a cell. It changes whenever food on that line changes.
+     *
+     * @param line The family of the line.
+     * @param x    The x-coordinate of the cell.
+     * @param y    The y-coordinate of the cell.
+     * @return The version of the line.
+     */
+    public int getLineVersion(BoardLine line, int x, int y) {
+        return versions[line.ordinal()][line.lineOf(x, y, size)];
+    }
+
+    private void touch(int x, int y) {
+        for (BoardLine line : LINES) {
+            versions[line.ordinal()][line.lineOf(x, y, size)]++;
+        }
+    }
+
+    /**
+     * Gets the total value of food on a ray starting next to a cell.
+     *
+     * @param x      The x-coordinate of the cell.
+     * @param y      The y-coordinate of the cell.
+     * @param dir    The direction of the ray.
+     * @param stride The step length of the ray, 1 or 2.
+     * @return The sum of food values on the ray.
+     */
+    public int getVisibleFood(int x, int y, Direction dir, int stride) {
+        LineFenwick[][] trees = stride == 1 ? getLines() : getParityLines();
+        BoardLine line = dir.getLine();
+        int offset = line.offsetOf(x, y);
+        LineFenwick tree = trees[line.ordinal()][key(line, x, y, stride)];
+        if (tree == null) {
+            return 0;
+        }
+        return dir.getLineStep() > 0 ? tree.sumAfter(offset) : tree.sumBefore(offset);
+    }
+
+    private LineFenwick[][] getLines() {
+        if (lines == null) {
+            lines = build(1);
+        }
+        return lines;
+    }
+
+    private LineFenwick[][] getParityLines() {
+        if (parityLines == null) {
+            parityLines = build(2);
+        }
+        return parityLines;
+    }
+
+    private int key(BoardLine line, int x, int y, int stride) {
+        int id = line.lineOf(x, y, size);
+        return stride == 1 ? id : 2 * id + (line.offsetOf(x, y) & 1);
+    }
+
+    private LineFenwick[][] build(int stride) {
+        // Drop food that has been eaten since the last rebuild
+        dropEaten();
+        LineFenwick[][] trees = new LineFenwick[LINES.length][];
+        for (BoardLine line : LINES) {
+            int keys = line.lineCount(size) * stride;
+            int[] counts = new int[keys];
+            for (int i = 0; i < foodCount; i++) {
+                counts[key(line, store.getX(foods[i]), store.getY(foods[i]), stride)]++;
+            }
+            long[][] entries = new long[keys][];
+            for (int k = 0; k < keys; k++) {
+                if (counts[k] > 0) {
+                    entries[k] = new long[counts[k]];
+                    counts[k] = 0;
+                }
+            }
+            for (int i = 0; i < foodCount; i++) {
+                int x = store.getX(foods[i]);
+                int y = store.getY(foods[i]);
+                int k = key(line, x, y, stride);
+                entries[k][counts[k]++] = ((long) line.offsetOf(x, y) << 32) | (store.getValue(foods[i]) & 0xFFFFFFFFL);
+            }
+            LineFenwick[] family = new LineFenwick[keys];
+            for (int k = 0; k < keys; k++) {
+                if (entries[k] != null) {
+                    family[k] = new LineFenwick(entries[k]);
+                }
+            }
+            trees[line.ordinal()] = family;
+        }
+        return trees;
+    }
+}
+
+/**
+ * The FoodGrid class is a two-dimensional Fenwick tree over the food points of a board,
+ * compressed to the coordinates that hold food: the outer tree runs over the distinct
+ * x-coordinates, and each of its nodes keeps a Fenwick tree over the y-coordinates of the points
+ * it covers. It takes O(m log m) memory for m food points, whatever the board size, and answers
+ * rectangle sums and removals in O(log^2 m). Points are fixed when it is built.
+ */
+class FoodGrid {
+    private final int[] xs;
+    private final int[][] ys;
+    private final long[][] trees;
+
+    /**
+     * Builds a grid over food points.
+     *
+     * @param pointXs The x-coordinates of the points.
+     * @param pointYs The y-coordinates of the points.
+     * @param values  The values of the points.
+     */
+    FoodGrid(int[] pointXs, int[] pointYs, int[] values) {
+        xs = Arrays.stream(pointXs).sorted().distinct().toArray();
+        int[] counts = new int[xs.length + 1];
+        for (int x : pointXs) {
+            for (int j = Arrays.binarySearch(xs, x) + 1; j <= xs.length; j += j & -j) {
+                counts[j]++;
+            }
+        }
+        ys = new int[xs.length + 1][];
+        for (int j = 1; j <= xs.length; j++) {
+            ys[j] = new int[counts[j]];
+            counts[j] = 0;
+        }
+        for (int i = 0; i < pointXs.length; i++) {
+            for (int j = Arrays.binarySearch(xs, pointXs[i]) + 1; j <= xs.length; j += j & -j) {
+                ys[j][counts[j]++] = pointYs[i];
+            }
+        }
+        trees = new long[xs.length + 1][];
+        for (int j = 1; j <= xs.length; j++) {
+            ys[j] = Arrays.stream(ys[j]).sorted().distinct().toArray();
+            trees[j] = new long[ys[j].length + 1];
+        }
+        for (int i = 0; i < pointXs.length; i++) {
+            add(pointXs[i], pointYs[i], values[i]);
+        }
+    }
+
+    /**
+     * Removes the value of a food point that has been eaten.
+     *
+     * @param x     The x-coordinate of the point.
+     * @param y     The y-coordinate of the point.
+     * @param value The value of the point.
+     */
+    public void remove(int x, int y, int value) {
+        add(x, y, -value);
+    }
+
+    private void add(int x, int y, long delta) {
+        for (int j = Arrays.binarySearch(xs, x) + 1; j <= xs.length; j += j & -j) {
+            long[] tree = trees[j];
+            for (int k = Arrays.binarySearch(ys[j], y) + 1; k < tree.length; k += k & -k) {
+                tree[k] += delta;
+            }
+        }
+    }
+
+    /**
+     * Gets the total value in a rectangle.
+     *
+     * @param x1 The smallest x-coordinate.
+     * @param y1 The smallest y-coordinate.
+     * @param x2 The largest x-coordinate.
+     * @param y2 The largest y-coordinate.
+     * @return The sum of the values of the points in the rectangle.
+     */
+    public long sum(int x1, int y1, int x2, int y2) {
+        return columns(x2, y1, y2) - columns(x1 - 1, y1, y2);
+    }
+
+    private long columns(int x, int y1, int y2) {
+        long sum = 0;
+        for (int j = upperBound(xs, x); j > 0; j -= j & -j) {
+            sum += prefix(trees[j], upperBound(ys[j], y2)) - prefix(trees[j], upperBound(ys[j], y1 - 1));
+        }
+        return sum;
+    }
+
+    private static long prefix(long[] tree, int count) {
+        long sum = 0;
+        for (int k = count; k > 0; k -= k & -k) {
+            sum += tree[k];
+        }
+        return sum;
+    }
+
+    private static int upperBound(int[] sorted, int key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
+
+/**
+ * The VisibleFoodCache class memoizes visible-food values per (cell, direction, stride).
+ * Every entry remembers the version of the line its ray lies on; a change of food on that line
+ * bumps the version, which invalidates exactly the entries of rays along it and nothing else.
+ * The table is direct-mapped with a fixed number of slots, so a colliding ray replaces the old one.
+ */
+class VisibleFoodCache {
+    /**
+     * The value returned by {@link #get(long, int)} when the ray is not cached.
+     */
+    static final long MISS = Long.MIN_VALUE;
+
+    private static final int CAPACITY = 1 << 14;
+
+    private long[] keys;
+    private int[] versions;
+    private int[] values;
+    private long hits;
+    private long misses;
+
+    /**
+     * Packs a ray into a cache key. Zero is never a key, since coordinates start from 1.
+     *
+     * @param x      The x-coordinate of the start of the ray.
+     * @param y      The y-coordinate of the start of the ray.
+     * @param dir    The direction of the ray.
+     * @param stride The step length of the ray, 1 or 2.
+     * @return The key of the ray.
+     */
+    static long key(int x, int y, Direction dir, int stride) {
+        return ((long) x << 36) | ((long) y << 4) | ((long) dir.ordinal() << 1) | (stride - 1);
+    }
+
+    private static int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (CAPACITY - 1);
+    }
 
     /**
-     * Computes the sum of visible values in the orthogonal direction from the current position.
+     * Looks a ray up.
      *
-     * @param dir            The direction of movement.
-     * @param entityPosition The current position of the entity.
-     * @param boardData      The board data containing entities.
-     * @param boardSize      The size of the board.
-     * @return The sum of visible values in the specified orthogonal direction.
+     * @param key     The key of the ray.
+     * @param version The current version of the line of the ray.
+     * @return The cached value, or MISS if it is absent or stale.
      */
-    public default int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
-                                                          Map<String, BoardEntity> boardData, int boardSize) {
-        Board temp = new Board(boardData, boardSize);
-        int counter = 0;
-        while (temp.onBoard(dir.nextPos(entityPosition))) {
-            EntityPosition nextPosition = dir.nextPos(entityPosition);
-            BoardEntity entity = temp.getEntity(nextPosition);
-            if (entity instanceof FoodPoint) {
-                counter += ((FoodPoint) entity).value;
+    public long get(long key, int version) {
+        if (keys != null) {
+            int i = slot(key);
+            if (keys[i] == key && versions[i] == version) {
+                hits++;
+                return values[i];
             }
-            entityPosition = dir.nextPos(entityPosition);
         }
-        return counter;
+        misses++;
+        return MISS;
     }
 
     /**
-     * Moves the entity orthogonally in the specified direction, interacting with entities on the way.
+     * Stores the value of a ray.
      *
-     * @param dir            The direction of movement.
-     * @param entityPosition The current position of the entity.
-     * @param insectColor    The color of the insect.
-     * @param boardData      The board data containing entities.
-     * @param boardSize      The size of the board.
-     * @return The sum of values obtained during movement (e.g., consumed food).
+     * @param key     The key of the ray.
+     * @param version The version of the line the value was computed at.
+     * @param value   The visible-food value.
      */
-    public default int travelOrthogonally(Direction dir, EntityPosition entityPosition, InsectColor insectColor,
-                                          Map<String, BoardEntity> boardData, int boardSize) {
-        Board temp = new Board(boardData, boardSize);
-        int eaten = 0;
-        while (temp.onBoard(dir.nextPos(entityPosition))) {
-            EntityPosition nextPosition = dir.nextPos(entityPosition);
-            BoardEntity entity = temp.getEntity(nextPosition);
-            if (entity instanceof FoodPoint) {
-                eaten += ((FoodPoint) entity).value;
-                Main.deleteFood(entity.entityPosition);
-            } else if (entity instanceof Insect) {
-                InsectColor otherColor = ((Insect) entity).color;
-                if (insectColor != otherColor) {
-                    break;
-                }
-            }
-            entityPosition = dir.nextPos(entityPosition);
+    public void put(long key, int version, int value) {
+        if (keys == null) {
+            keys = new long[CAPACITY];
+            versions = new int[CAPACITY];
+            values = new int[CAPACITY];
         }
-        return eaten;
-    };
+        int i = slot(key);
+        keys[i] = key;
+        versions[i] = version;
+        values[i] = value;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
 }
 
 /**
- * An interface representing movement in diagonal directions on a board.
+ * A Fenwick tree over the food points of one line, indexed by their sorted offsets.
+ * A bitset over the same indices marks the food points not eaten yet, so the nearest remaining
+ * one in either direction is found a word at a time.
  */
-interface DiagonalMoving {
-
-    /**
-     * Computes the sum of visible values in the diagonal direction from the current position.
-     *
-     * @param dir            The direction of movement.
-     * @param entityPosition The current position of the entity.
-     * @param boardData      The board data containing entities.
-     * @param boardSize      The size of the board.
-     * @return The sum of visible values in the specified diagonal direction.
-     */
-    public default int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
-                                                        Map<String, BoardEntity> boardData, int boardSize) {
-        Board temp = new Board(boardData, boardSize);
-        int counter = 0;
-        while (temp.onBoard(dir.nextPos(entityPosition))) {
-            EntityPosition nextPosition = dir.nextPos(entityPosition);
-            BoardEntity entity = temp.getEntity(nextPosition);
-            if (entity instanceof FoodPoint) {
-                counter += ((FoodPoint) entity).value;
-            }
-            entityPosition = dir.nextPos(entityPosition);
-        }
-        return counter;
-    };
+class LineFenwick {
+    private final int[] offsets;
+    private final int[] tree;
+    private final long[] alive;
 
     /**
-     * Moves the entity diagonally in the specified direction, interacting with entities on the way.
+     * Builds the tree from entries packed as (offset << 32 | value), offsets being distinct.
      *
-     * @param dir            The direction of movement.
-     * @param entityPosition The current position of the entity.
-     * @param insectColor    The color of the insect.
-     * @param boardData      The board data containing entities.
-     * @param boardSize      The size of the board.
-     * @return The sum of values obtained during movement (e.g., consumed food).
+     * @param entries The packed entries, in any order. The array is sorted in place.
      */
-    public default int travelDiagonally(Direction dir, EntityPosition entityPosition, InsectColor insectColor,
-                                        Map<String, BoardEntity> boardData, int boardSize) {
-        Board temp = new Board(boardData, boardSize);
-        int eaten = 0;
-        while (temp.onBoard(dir.nextPos(entityPosition))) {
-            EntityPosition nextPosition = dir.nextPos(entityPosition);
-            BoardEntity entity = temp.getEntity(nextPosition);
-            if (entity instanceof FoodPoint) {
-                eaten += ((FoodPoint) entity).value;
-                Main.deleteFood(entity.entityPosition);
-            } else if (entity instanceof Insect) {
-                InsectColor otherColor = ((Insect) entity).color;
-                if (insectColor != otherColor) {
-                    break;
-                }
+    LineFenwick(long[] entries) {
+        Arrays.sort(entries);
+        offsets = new int[entries.length];
+        tree = new int[entries.length + 1];
+        alive = new long[(entries.length + 63) >>> 6];
+        for (int i = 0; i < entries.length; i++) {
+            alive[i >>> 6] |= 1L << i;
+            offsets[i] = (int) (entries[i] >>> 32);
+            tree[i + 1] += (int) entries[i];
+            int parent = (i + 1) + ((i + 1) & -(i + 1));
+            if (parent <= entries.length) {
+                tree[parent] += tree[i + 1];
             }
-            entityPosition = dir.nextPos(entityPosition);
         }
-        return eaten;
-    };
-}
-/**
- * An abstract class representing an insect on the board.
- */
-abstract class Insect extends BoardEntity {
-
-    private String insectType;
-
-    public String getInsectType() {
-        return insectType;
     }
 
-    public void setInsectType(String insectType) {
-        this.insectType = insectType;
+    private int prefix(int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
     }
 
-    protected InsectColor color;
+    /**
+     * Gets the number of offsets strictly less than the given one.
+     */
+    private int rank(int offset) {
+        int lo = 0;
+        int hi = offsets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsets[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
 
     /**
-     * Constructs an insect with the given position and color.
+     * Gets the sum of values at offsets strictly less than the given one.
      *
-     * @param position The initial position of the insect.
-     * @param color    The color of the insect.
+     * @param offset The offset to compare with.
+     * @return The sum of values before the offset.
      */
-    public Insect(EntityPosition position, InsectColor color) {
-        this.color = color;
-        this.setEntityPosition(position);
+    public int sumBefore(int offset) {
+        return prefix(rank(offset));
     }
 
     /**
-     * Abstract method to get the best direction for the insect to move based on board conditions.
+     * Gets the sum of values at offsets strictly greater than the given one.
      *
-     * @param boardData The board data containing entities.
-     * @param boardSize The size of the board.
-     * @return The best direction for the insect to move.
+     * @param offset The offset to compare with.
+     * @return The sum of values after the offset.
      */
-    public abstract Direction getBestDirection(Map<String, BoardEntity> boardData, int boardSize);
+    public int sumAfter(int offset) {
+        return prefix(offsets.length) - prefix(rank(offset + 1));
+    }
 
     /**
-     * Abstract method to perform movement in a specific direction and interact with entities on the way.
+     * Adds a delta to the value stored at an offset present in the tree.
      *
-     * @param dir       The direction of movement.
-     * @param boardData The board data containing entities.
-     * @param boardSize The size of the board.
-     * @return The sum of values obtained during movement (e.g., consumed food).
+     * @param offset The offset of the food point.
+     * @param delta  The change of its value.
      */
-    public abstract int travelDirection(Direction dir, Map<String, BoardEntity> boardData, int boardSize);
-}
-
-/**
- * A class representing a butterfly on the board, capable of orthogonal movement.
- */
-class Butterfly extends Insect implements OrthogonalMoving {
+    public void add(int offset, int delta) {
+        for (int i = rank(offset) + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
 
     /**
-     * Constructs a butterfly with the given position and color.
+     * Removes the food point at an offset present in the tree.
      *
-     * @param entityPosition The initial position of the butterfly.
-     * @param color          The color of the butterfly.
+     * @param offset The offset of the food point.
+     * @param value  The value of the food point.
      */
-    public Butterfly(EntityPosition entityPosition, InsectColor color) {
-        super(entityPosition, color);
+    public void remove(int offset, int value) {
+        int i = rank(offset);
+        alive[i >>> 6] &= ~(1L << i);
+        add(offset, -value);
     }
 
-    @Override
-    public Direction getBestDirection(Map<String, BoardEntity> boardData, int boardSize) {
-        Direction bestDir = Direction.getOrthogonalDirections().get(0);
-        int bestValue = this.getOrthogonalDirectionVisibleValue(bestDir, this.entityPosition, boardData, boardSize);
-        for (Direction dir : Direction.getOrthogonalDirections()) {
-            int value = this.getOrthogonalDirectionVisibleValue(dir, this.entityPosition, boardData, boardSize);
-            if (value > bestValue) {
-                bestValue = value;
-                bestDir = dir;
+    /**
+     * Gets the smallest offset of a remaining food point strictly greater than the given one.
+     *
+     * @param offset The offset to compare with.
+     * @return The offset found, or -1 if there is none.
+     */
+    public int nextAfter(int offset) {
+        int i = rank(offset + 1);
+        int w = i >>> 6;
+        if (w >= alive.length) {
+            return -1;
+        }
+        long word = alive[w] & (-1L << i);
+        while (word == 0) {
+            if (++w == alive.length) {
+                return -1;
             }
+            word = alive[w];
         }
-        return bestDir;
-    }
-
-    @Override
-    public int travelDirection(Direction dir, Map<String, BoardEntity> boardData, int boardSize) {
-        return this.travelOrthogonally(dir, this.entityPosition, this.color, boardData, boardSize);
+        return offsets[(w << 6) + Long.numberOfTrailingZeros(word)];
     }
-}
-/**
- * A class representing an ant on the board, capable of both orthogonal and diagonal movement.
- */
-class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
 
     /**
-     * Constructs an ant with the given position and color.
+     * Gets the largest offset of a remaining food point strictly less than the given one.
      *
-     * @param entityPosition The initial position of the ant.
-     * @param color          The color of the ant.
+     * @param offset The offset to compare with.
+     * @return The offset found, or -1 if there is none.
      */
-    public Ant(EntityPosition entityPosition, InsectColor color) {
-        super(entityPosition, color);
-    }
-
-    @Override
-    public Direction getBestDirection(Map<String, BoardEntity> boardData, int boardSize) {
-        Direction bestDir = Direction.getAllDirections().get(0);
-        int bestValue = this.getDiagonalDirectionVisibleValue(bestDir, this.entityPosition, boardData, boardSize);
-        for (Direction dir : Direction.getAllDirections()) {
-            int value = this.getDiagonalDirectionVisibleValue(dir, this.entityPosition, boardData, boardSize);
-            if (value > bestValue) {
-                bestValue = value;
-                bestDir = dir;
+    public int nextBefore(int offset) {
+        int i = rank(offset) - 1;
+        if (i < 0) {
+            return -1;
+        }
+        int w = i >>> 6;
+        long word = alive[w] & (-1L >>> (63 - (i & 63)));
+        while (word == 0) {
+            if (--w < 0) {
+                return -1;
             }
+            word = alive[w];
         }
-        return bestDir;
-    }
-
-    @Override
-    public int travelDirection(Direction dir, Map<String, BoardEntity> boardData, int boardSize) {
-        return this.travelOrthogonally(dir, this.entityPosition, this.color, boardData, boardSize);
+        return offsets[(w << 6) + 63 - Long.numberOfLeadingZeros(word)];
     }
 }
 
 /**
- * A class representing a spider on the board, capable of diagonal movement.
+ * The OccupancyIndex class keeps, for every insect color, a bitset of the occupied offsets of every
+ * row, column, diagonal and anti-diagonal. A traveller finds the first insect of another color on
+ * its ray with a few word scans instead of looking at every cell.
  */
-class Spider extends Insect implements DiagonalMoving {
+class OccupancyIndex {
+    private static final BoardLine[] LINES = BoardLine.values();
+    private static final InsectColor[] COLORS = InsectColor.values();
+
+    private final LineLocks locks;
+    private final int size;
+    private final LineBits[][][] bits = new LineBits[COLORS.length][LINES.length][];
 
     /**
-     * Constructs a spider with the given position and color.
+     * Constructs an empty index for a board.
      *
-     * @param entityPosition The initial position of the spider.
-     * @param color          The color of the spider.
+     * @param locks     The line locks taken while moves run concurrently.
+     * @param boardSize The size of the board.
      */
-    public Spider(EntityPosition entityPosition, InsectColor color) {
-        super(entityPosition, color);
+    OccupancyIndex(LineLocks locks, int boardSize) {
+        this.locks = locks;
+        this.size = boardSize;
     }
 
-    @Override
-    public Direction getBestDirection(Map<String, BoardEntity> boardData, int boardSize) {
-        Direction bestDir = Direction.getDiagonalDirections().get(0);
-        int bestValue = this.getDiagonalDirectionVisibleValue(bestDir, this.entityPosition, boardData, boardSize);
-        for (Direction dir : Direction.getDiagonalDirections()) {
-            int value = this.getDiagonalDirectionVisibleValue(dir, this.entityPosition, boardData, boardSize);
-            if (value > bestValue) {
-                bestValue = value;
-                bestDir = dir;
+    /**
+     * Marks the cell of an insect as occupied by its color.
+     *
+     * @param color The color of the insect.
+     * @param x     The x-coordinate of its cell.
+     * @param y     The y-coordinate of its cell.
+     */
+    public void add(InsectColor color, int x, int y) {
+        for (BoardLine line : LINES) {
+            int lineId = line.lineOf(x, y, size);
+            if (locks.isEnabled()) {
+                synchronized (locks.get(line, lineId)) {
+                    lineBits(color, line, lineId, true).set(line.offsetOf(x, y));
+                }
+            } else {
+                lineBits(color, line, lineId, true).set(line.offsetOf(x, y));
             }
         }
-        return bestDir;
     }
 
-    @Override
-    public int travelDirection(Direction dir, Map<String, BoardEntity> boardData, int boardSize) {
-        return this.travelDiagonally(dir, this.entityPosition, this.color, boardData, boardSize);
-    }
-}
-
-/**
- * A class representing a grasshopper on the board, capable of orthogonal movement and jumping.
- */
-class Grasshopper extends Insect {
-
     /**
-     * Constructs a grasshopper with the given position and color.
+     * Clears the cell of an insect.
      *
-     * @param entityPosition The initial position of the grasshopper.
-     * @param color          The color of the grasshopper.
+     * @param color The color of the insect.
+     * @param x     The x-coordinate of its cell.
+     * @param y     The y-coordinate of its cell.
      */
-    public Grasshopper(EntityPosition entityPosition, InsectColor color) {
-        super(entityPosition, color);
+    public void remove(InsectColor color, int x, int y) {
+        for (BoardLine line : LINES) {
+            int lineId = line.lineOf(x, y, size);
+            if (locks.isEnabled()) {
+                synchronized (locks.get(line, lineId)) {
+                    clear(color, line, lineId, line.offsetOf(x, y));
+                }
+            } else {
+                clear(color, line, lineId, line.offsetOf(x, y));
+            }
+        }
     }
 
-    @Override
-    public Direction getBestDirection(Map<String, BoardEntity> boardData, int boardSize) {
-        Direction bestDir = Direction.getOrthogonalDirections().get(0);
-        int bestValue = this.getDirectionVisibleValue(bestDir, this.entityPosition, boardData, boardSize);
-        for (Direction dir : Direction.getOrthogonalDirections()) {
-            int value = this.getDirectionVisibleValue(dir, this.entityPosition, boardData, boardSize);
-            if (value > bestValue) {
-                bestValue = value;
-                bestDir = dir;
-            }
+    private void clear(InsectColor color, BoardLine line, int lineId, int offset) {
+        LineBits lineBits = lineBits(color, line, lineId, false);
+        if (lineBits != null) {
+            lineBits.clear(offset);
         }
-        return bestDir;
     }
 
     /**
-     * Gets the visible value in a specific direction for the grasshopper, considering its jumping ability.
+     * Finds the nearest insect of another color on a ray.
      *
-     * @param dir            The direction to check.
-     * @param entityPosition The current position of the grasshopper.
-     * @param boardData      The board data containing entities.
-     * @param boardSize      The size of the board.
-     * @return The visible value in the specified direction.
+     * @param color  The color of the traveller.
+     * @param line   The family of the line of the ray.
+     * @param lineId The id of the line of the ray.
+     * @param from   The offset the ray starts from, excluded.
+     * @param step   The sign of the direction of the ray along the line.
+     * @param stride The step length of the ray; cells in between are not looked at.
+     * @return The offset of the nearest enemy, or -1 if there is none.
      */
-    public int getDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
-                                        Map<String, BoardEntity> boardData, int boardSize) {
-        Board temp = new Board(boardData, boardSize);
-        int counter = 0;
-        // Double motion
-        while (temp.onBoard(dir.nextPos(dir.nextPos(entityPosition)))) {
-            EntityPosition nextPosition = dir.nextPos(dir.nextPos(entityPosition));
-            BoardEntity entity = temp.getEntity(nextPosition);
-            if (entity instanceof FoodPoint) {
-                counter += ((FoodPoint) entity).value;
+    public int nearestEnemy(InsectColor color, BoardLine line, int lineId, int from, int step, int stride) {
+        int nearest = -1;
+        for (InsectColor other : COLORS) {
+            if (other == color) {
+                continue;
+            }
+            LineBits lineBits = lineBits(other, line, lineId, false);
+            if (lineBits == null) {
+                continue;
+            }
+            int found = nearest(lineBits, from, step, stride);
+            if (found >= 0 && (nearest < 0 || (found - nearest) * step < 0)) {
+                nearest = found;
             }
-            entityPosition = nextPosition;
         }
-        return counter;
+        return nearest;
     }
 
-    @Override
-    public int travelDirection(Direction dir, Map<String, BoardEntity> boardData, int boardSize) {
-        Board temp = new Board(boardData, boardSize);
-        int eaten = 0;
-        while (temp.onBoard(dir.nextPos(dir.nextPos(entityPosition)))) {
-            EntityPosition nextPosition = dir.nextPos(dir.nextPos(entityPosition));
-            BoardEntity entity = temp.getEntity(nextPosition);
-            if (entity instanceof FoodPoint) {
-                eaten += ((FoodPoint) entity).value;
-                Main.deleteFood(entity.entityPosition);
-            } else if (entity instanceof Insect) {
-                InsectColor otherColor = ((Insect) entity).color;
-                if (this.color != otherColor) {
-                    break;
+    private static int nearest(LineBits lineBits, int from, int step, int stride) {
+        int current = from;
+        do {
+            current = step > 0 ? lineBits.next(current + 1) : lineBits.previous(current - 1);
+        } while (current >= 0 && (current - from) % stride != 0);
+        return current;
+    }
+
+    private LineBits lineBits(InsectColor color, BoardLine line, int lineId, boolean create) {
+        LineBits[] family = bits[color.ordinal()][line.ordinal()];
+        if (family == null) {
+            if (!create) {
+                return null;
+            }
+            // Concurrent movers on different lines of a family may both get here first
+            synchronized (bits) {
+                family = bits[color.ordinal()][line.ordinal()];
+                if (family == null) {
+                    family = new LineBits[line.lineCount(size)];
+                    bits[color.ordinal()][line.ordinal()] = family;
                 }
             }
-            entityPosition = nextPosition;
         }
-        return eaten;
+        if (family[lineId] == null && create) {
+            family[lineId] = new LineBits(size);
+        }
+        return family[lineId];
     }
 }
 
 /**
- * A class representing the game board.
+ * The LineLocks class stripes the lines of a board over a fixed set of monitors. While it is
+ * enabled, the food and occupancy indexes update each line under the monitor of its stripe,
+ * so concurrent moves touching different lines rarely wait for each other.
  */
-class Board {
+class LineLocks {
+    private static final int STRIPES = 256;
 
-    private Map<String, BoardEntity> boardData;
-    private int size;
+    private final Object[] stripes = new Object[STRIPES];
+    private boolean enabled;
 
     /**
-     * Gets the board data.
-     *
-     * @return The board data.
+     * Constructs a disabled set of line locks.
      */
-    public Map<String, BoardEntity> getBoardData() {
-        return boardData;
+    LineLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
     }
 
     /**
-     * Constructs an empty board with the given size.
-     *
-     * @param boardSize The size of the board.
+     * Turns locking on. Threads started afterwards see the change.
      */
-    public Board(int boardSize) {
-        size = boardSize;
-        boardData = new HashMap<String, BoardEntity>();
+    public void enable() {
+        enabled = true;
     }
 
     /**
-     * Constructs a board with the given data and size.
-     *
-     * @param boardData The initial board data.
-     * @param boardSize The size of the board.
+     * Turns locking off once the concurrent threads have finished.
      */
-    public Board(Map<String, BoardEntity> boardData, int boardSize) {
-        this.boardData = boardData;
-        this.size = boardSize;
+    public void disable() {
+        enabled = false;
     }
 
     /**
-     * Checks if a position is within the bounds of the board.
+     * Gets the monitor of a line.
      *
-     * @param position The position to check.
-     * @return True if the position is on the board, false otherwise.
+     * @param line   The family of the line.
+     * @param lineId The id of the line.
+     * @return The monitor of the stripe holding the line.
      */
-    public boolean onBoard(EntityPosition position) {
-        return position.getX() <= size && position.getY() <= size && position.getX() >= 1 && position.getY() >= 1;
+    public Object get(BoardLine line, int lineId) {
+        return stripes[(lineId * 4 + line.ordinal()) & (STRIPES - 1)];
     }
+}
+
+/**
+ * A bitset over the offsets of one line, stored as long words in pages of 4096 bits that are
+ * allocated on first use. Empty pages are skipped by their population count.
+ */
+class LineBits {
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_WORDS = 1 << (PAGE_SHIFT - 6);
+
+    private final long[][] pages;
+    private final int[] counts;
 
     /**
-     * Erases an entity from the board at the specified position.
+     * Constructs an empty bitset.
      *
-     * @param position The position of the entity to erase.
+     * @param maxOffset The largest offset that can be set.
      */
-    public void erase(EntityPosition position) {
-        boardData.replace(position.toString(), null);
+    LineBits(int maxOffset) {
+        int pageCount = (maxOffset >>> PAGE_SHIFT) + 1;
+        pages = new long[pageCount][];
+        counts = new int[pageCount];
     }
 
     /**
-     * Adds an entity to the board, checking for overlapping entities.
+     * Sets the bit of an offset.
      *
-     * @param entity The entity to add.
-     * @throws TwoEntitiesOnSamePositionException if there are two entities in the same position.
+     * @param offset The offset.
      */
-    public void addEntity(BoardEntity entity) throws TwoEntitiesOnSamePositionException {
-        BoardEntity curr = this.getEntity(entity.entityPosition);
-        if (curr == null) {
-            boardData.put(entity.entityPosition.toString(), entity);
-            return;
+    public void set(int offset) {
+        int p = offset >>> PAGE_SHIFT;
+        if (pages[p] == null) {
+            pages[p] = new long[PAGE_WORDS];
+        }
+        int w = (offset >>> 6) & (PAGE_WORDS - 1);
+        long bit = 1L << offset;
+        if ((pages[p][w] & bit) == 0) {
+            pages[p][w] |= bit;
+            counts[p]++;
         }
-        throw new TwoEntitiesOnSamePositionException();
     }
 
     /**
-     * Gets the entity at the specified position on the board.
+     * Clears the bit of an offset.
      *
-     * @param position The position to query.
-     * @return The entity at the specified position, or null if no entity is present.
+     * @param offset The offset.
      */
-    public BoardEntity getEntity(EntityPosition position) {
-        return boardData.get(position.toString());
+    public void clear(int offset) {
+        int p = offset >>> PAGE_SHIFT;
+        if (pages[p] == null) {
+            return;
+        }
+        int w = (offset >>> 6) & (PAGE_WORDS - 1);
+        long bit = 1L << offset;
+        if ((pages[p][w] & bit) != 0) {
+            pages[p][w] &= ~bit;
+            counts[p]--;
+        }
     }
 
     /**
-     * Gets the direction for an insect on the board.
+     * Gets the smallest set offset greater than or equal to the given one.
      *
-     * @param insect The insect for which to determine the direction.
-     * @return The direction for the insect.
+     * @param from The offset to start from.
+     * @return The offset found, or -1 if there is none.
      */
-    public Direction getDirection(Insect insect) {
-        return null; // Not implemented
+    public int next(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int p = from >>> PAGE_SHIFT;
+        if (p >= pages.length) {
+            return -1;
+        }
+        int w = (from >>> 6) & (PAGE_WORDS - 1);
+        long word = counts[p] > 0 ? pages[p][w] & (-1L << from) : 0;
+        while (word == 0) {
+            if (++w == PAGE_WORDS || counts[p] == 0) {
+                do {
+                    p++;
+                } while (p < pages.length && counts[p] == 0);
+                if (p == pages.length) {
+                    return -1;
+                }
+                w = 0;
+            }
+            word = pages[p][w];
+        }
+        return (p << PAGE_SHIFT) + (w << 6) + Long.numberOfTrailingZeros(word);
     }
 
     /**
-     * Gets the sum of directions for an insect on the board.
+     * Gets the largest set offset less than or equal to the given one.
      *
-     * @param insect The insect for which to determine the direction sum.
-     * @return The sum of directions for the insect.
+     * @param from The offset to start from.
+     * @return The offset found, or -1 if there is none.
      */
-    public int getDirectionSum(Insect insect) {
-        return 0; // Not implemented
+    public int previous(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int p = from >>> PAGE_SHIFT;
+        if (p >= pages.length) {
+            p = pages.length - 1;
+            from = (pages.length << PAGE_SHIFT) - 1;
+        }
+        int w = (from >>> 6) & (PAGE_WORDS - 1);
+        long word = counts[p] > 0 ? pages[p][w] & (-1L >>> (63 - (from & 63))) : 0;
+        while (word == 0) {
+            if (w-- == 0 || counts[p] == 0) {
+                do {
+                    p--;
+                } while (p >= 0 && counts[p] == 0);
+                if (p < 0) {
+                    return -1;
+                }
+                w = PAGE_WORDS - 1;
+            }
+            word = pages[p][w];
+        }
+        return (p << PAGE_SHIFT) + (w << 6) + 63 - Long.numberOfLeadingZeros(word);
     }
 }
+
 /**
  * An exception indicating that the board size is invalid.
  */
@@ -974,6 +5839,16 @@ class DuplicateInsectException extends Exception {
     }
 }
 
+/**
+ * An exception indicating that a checkpoint file is damaged or of another format version.
+ */
+class InvalidCheckpointException extends Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid checkpoint";
+    }
+}
+
 /**
  * An exception indicating that there are two entities in the same position on the board.
  */
@@ -1,10 +1,23 @@
+import java.io.BufferedOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Scanner;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -12,6 +25,28 @@ import java.util.Objects;
  */
 public class UniversityCourseManagementSystem {
 
+    /**
+     * Class bit of the digits 0-9.
+     */
+    private static final byte DIGIT = 1;
+    /**
+     * Class bit of the letters a-z.
+     */
+    private static final byte LOWERCASE = 2;
+    /**
+     * Class bits of the ASCII characters, indexed by character.
+     */
+    private static final byte[] CHARACTER_CLASS = new byte[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            CHARACTER_CLASS[c] |= DIGIT;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHARACTER_CLASS[c] |= LOWERCASE;
+        }
+    }
+
     /**
      * Checks if a given character is a digit.
      *
@@ -19,13 +54,7 @@ public class UniversityCourseManagementSystem {
      * @return true if the character is a digit, false otherwise
      */
     static boolean isDigit(char c) {
-        String digits = "0123456789";
-        for (int i = 0; i < digits.length(); i++) {
-            if (c == digits.charAt(i)) {
-                return true;
-            }
-        }
-        return false;
+        return c < CHARACTER_CLASS.length && (CHARACTER_CLASS[c] & DIGIT) != 0;
     }
 
     /**
@@ -35,16 +64,10 @@ public class UniversityCourseManagementSystem {
      * @return true if the character is an alphabetic character, false otherwise
      */
     static boolean isAlphabetic(char c) {
-        String alphabet = "abcdefghijklmnopqrstuvwxyz";
-        for (int i = 0; i < alphabet.length(); i++) {
-            if (c == alphabet.charAt(i)) {
-                return true;
-            }
-        }
-        return false;
+        return c < CHARACTER_CLASS.length && (CHARACTER_CLASS[c] & LOWERCASE) != 0;
     }
     public static int getNumOfMembers() {
-        return humans.size();
+        return registry.memberCount();
     }
     /**
      * Validates if a given name consists only of alphabetic characters.
@@ -80,18 +103,13 @@ public class UniversityCourseManagementSystem {
     /**
      * Converts a string input to an integer if it contains only digits.
      *
-     * @param s the Scanner input
+     * @param s the command input
      * @return the integer value, or -1 if the input is not a valid integer
+     * @throws NumberFormatException if the digits do not fit in an int
      */
-    static int inputInt(Scanner s) {
+    static int inputInt(CommandReader s) {
         if (s.hasNext()) {
-            String buff = s.next();
-            for (int i = 0; i < buff.length(); i++) {
-                if (!isDigit(buff.charAt(i))) {
-                    return -1;
-                }
-            }
-            return Integer.parseInt(buff);
+            return s.nextDigits();
         }
         return -1;
     }
@@ -99,12 +117,12 @@ public class UniversityCourseManagementSystem {
     /**
      * Converts a string input to lowercase if it exists; returns a default non-valid string otherwise.
      *
-     * @param s the Scanner input
+     * @param s the command input
      * @return the lowercase string if it exists, or "******" as a non-valid string
      */
-    static String inputString(Scanner s) {
+    static String inputString(CommandReader s) {
         if (s.hasNext()) {
-            return s.next().toLowerCase();
+            return s.nextLowerCase();
         }
         return "******"; // non-valid string in context of task
     }
@@ -123,88 +141,206 @@ public class UniversityCourseManagementSystem {
             "exempt"
     );
 
-    // Success messages for different operations
     /**
-     * Success addition string.
+     * Words the command reader returns without allocating: the commands and course levels.
      */
-    private static final String ADD_SUCCESS = "Added successfully";
+    private static final List<String> KEYWORDS = Arrays.asList(
+            "course", "student", "professor", "enroll", "drop", "teach", "exempt", "bachelor", "master"
+    );
+
     /**
-     * Success enrollment string.
+     * Members and courses in System, indexed by id and course name.
      */
-    private static final String ENROLL_SUCCESS = "Enrolled successfully";
+    private static UniversityRegistry registry;
     /**
-     * Success drop string.
+     * Enrollments and teaching assignments over the registry.
      */
-    private static final String DROP_SUCCESS = "Dropped successfully";
+    private static EnrollmentEngine engine;
     /**
-     * Success exemption string.
+     * Size of the buffer responses are collected in before they are written.
      */
-    private static final String EXEMPT_SUCCESS = "Professor is exempted";
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
     /**
-     * Success teaching assignment string.
+     * Size of the response buffer in batch mode, where the whole file is answered.
      */
-    private static final String TEACH_SUCCESS = "Professor is successfully assigned to teach this course";
-
-
-    // List of success messages
+    private static final int BATCH_OUTPUT_BUFFER_SIZE = 1 << 20;
     /**
-     * List of successful codes for commands.
+     * Prefix of the argument naming a command file to run in batch mode.
      */
-    private static final List<String> SUCCESS = Arrays.asList(
-            ADD_SUCCESS, ENROLL_SUCCESS, DROP_SUCCESS, EXEMPT_SUCCESS, TEACH_SUCCESS
-    );
+    private static final String BATCH_OPTION = "--batch=";
+    /**
+     * Course capacity and member loads in System.
+     */
+    private static UniversityLimits limits = new UniversityLimits();
 
-    // Lists of humans, courses, and mapping of whether each member is a student or professor
     /**
-     * List of humans in System.
+     * The main method that executes the university course management system.
+     * Commands are read from the standard input until the first failure, unless "--batch=FILE"
+     * is given: then every command in FILE is answered and a summary is printed to the standard error.
+     * A batch file that cannot be read is reported and ends the program with status 1.
+     * @param args Command-line arguments, the batch file and the limits described in
+     *             {@link UniversityLimits#fromArgs(String[])}
      */
-    private static List<UniversityMember> humans;
+    public static void main(String[] args) {
+        limits = UniversityLimits.fromArgs(args);
+        registry = new UniversityRegistry();
+        engine = new EnrollmentEngine(registry);
+        fillInitialData();
+        String batchFile = batchFile(args);
+        InputStream batch = null;
+        if (batchFile != null) {
+            batch = openBatchFile(batchFile);
+            if (batch == null) {
+                System.exit(1);
+            }
+        }
+        try {
+            if (batchFile == null) {
+                OutputStream out = new BufferedOutputStream(System.out, OUTPUT_BUFFER_SIZE);
+                try {
+                    run(new CommandReader(System.in, KEYWORDS, out), out);
+                } finally {
+                    out.flush();
+                }
+            } else {
+                OutputStream out = new BufferedOutputStream(System.out, BATCH_OUTPUT_BUFFER_SIZE);
+                long[] counts;
+                try (InputStream in = batch) {
+                    counts = runBatch(new CommandReader(in, KEYWORDS), out);
+                } finally {
+                    out.flush();
+                }
+                printSummary(counts, System.err);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
-     * List of courses in System.
+     * Finds the command file given with "--batch=FILE".
+     *
+     * @param args the command line arguments
+     * @return the file name, or null to read commands from the standard input
      */
-    private static List<Course> courses;
+    static String batchFile(String[] args) {
+        String file = null;
+        for (String arg : args) {
+            if (arg.startsWith(BATCH_OPTION)) {
+                file = arg.substring(BATCH_OPTION.length());
+            }
+        }
+        return file;
+    }
+
     /**
-     * Dict for status of humans in System.
+     * Opens the command file of batch mode, reporting on the standard error why it cannot be read.
+     *
+     * @param file the file name
+     * @return the contents of the file, or null if it cannot be read
      */
-    private static Map<Integer, Boolean> isStudent;
+    static InputStream openBatchFile(String file) {
+        String problem;
+        try {
+            Path path = Path.of(file);
+            if (!Files.exists(path)) {
+                problem = "no such file";
+            } else if (Files.isDirectory(path)) {
+                problem = "is a directory";
+            } else if (!Files.isReadable(path)) {
+                problem = "permission denied";
+            } else {
+                return Files.newInputStream(path);
+            }
+        } catch (IOException | InvalidPathException e) {
+            problem = e.getMessage();
+        }
+        System.err.println("Cannot read batch file " + file + ": " + problem);
+        return null;
+    }
 
     /**
-     * The main method that executes the university course management system.
-     * @param args Command-line arguments (not used in this case)
+     * Executes commands and writes their responses until the input ends or a command fails.
+     *
+     * @param s   the command input
+     * @param out the stream responses are written to
+     * @throws IOException if a response cannot be written
      */
-    public static void main(String[] args) {
-        humans = new ArrayList<>();
-        courses = new ArrayList<>();
-        isStudent = new HashMap<>();
-        fillInitialData();
-        Scanner s = new Scanner(System.in);
+    static void run(CommandReader s, OutputStream out) throws IOException {
         while (s.hasNext()) {
-            String output = execute(s.next().toLowerCase(), s);
-            System.out.println(output);
-            if (!SUCCESS.contains(output)) {
+            Outcome outcome = execute(s.nextLowerCase(), s);
+            out.write(outcome.getLine());
+            if (!outcome.isSuccess()) {
                 break;
             }
         }
     }
 
+    /**
+     * Executes every command and writes its response, carrying on after failures.
+     * An id too long for an int is answered as wrong input instead of ending the run.
+     *
+     * @param s   the command input
+     * @param out the stream responses are written to
+     * @return the number of commands with each outcome, indexed by ordinal
+     * @throws IOException if a response cannot be written
+     */
+    static long[] runBatch(CommandReader s, OutputStream out) throws IOException {
+        long[] counts = new long[Outcome.values().length];
+        while (s.hasNext()) {
+            Outcome outcome;
+            try {
+                outcome = execute(s.nextLowerCase(), s);
+            } catch (NumberFormatException e) {
+                outcome = Outcome.WRONG_INPUTS;
+            }
+            out.write(outcome.getLine());
+            counts[outcome.ordinal()]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Prints how many commands had each outcome, followed by the totals.
+     *
+     * @param counts the number of commands with each outcome, indexed by ordinal
+     * @param out    the stream the summary is printed to
+     */
+    static void printSummary(long[] counts, PrintStream out) {
+        long succeeded = 0;
+        long failed = 0;
+        for (Outcome outcome : Outcome.values()) {
+            long count = counts[outcome.ordinal()];
+            out.printf("%-56s %d%n", outcome.getMessage(), count);
+            if (outcome.isSuccess()) {
+                succeeded += count;
+            } else {
+                failed += count;
+            }
+        }
+        out.printf("%-56s %d%n", "Succeeded", succeeded);
+        out.printf("%-56s %d%n", "Failed", failed);
+        out.printf("%-56s %d%n", "Commands", succeeded + failed);
+    }
+
     /**
      * Fills the initial data in the university system.
      */
     public static void fillInitialData() {
-        humans.add(new Student("Alice"));
-        humans.add(new Student("Bob"));
-        humans.add(new Student("Alex"));
-        humans.add(new Professor("Ali"));
-        humans.add(new Professor("Ahmed"));
-        humans.add(new Professor("Andrey"));
-
-        courses.add(new Course("java_beginner", CourseLevel.BACHELOR));
-        courses.add(new Course("java_intermediate", CourseLevel.BACHELOR));
-        courses.add(new Course("python_basics", CourseLevel.BACHELOR));
-        courses.add(new Course("algorithms", CourseLevel.MASTER));
-        courses.add(new Course("advanced_programming", CourseLevel.MASTER));
-        courses.add(new Course("mathematical_analysis", CourseLevel.MASTER));
-        courses.add(new Course("computer_vision", CourseLevel.MASTER));
+        registry.addStudent(new Student("Alice", limits.getMaxEnrollment()));
+        registry.addStudent(new Student("Bob", limits.getMaxEnrollment()));
+        registry.addStudent(new Student("Alex", limits.getMaxEnrollment()));
+        registry.addProfessor(new Professor("Ali", limits.getMaxLoad()));
+        registry.addProfessor(new Professor("Ahmed", limits.getMaxLoad()));
+        registry.addProfessor(new Professor("Andrey", limits.getMaxLoad()));
+
+        registry.addCourse(new Course("java_beginner", CourseLevel.BACHELOR, limits.getCapacity()));
+        registry.addCourse(new Course("java_intermediate", CourseLevel.BACHELOR, limits.getCapacity()));
+        registry.addCourse(new Course("python_basics", CourseLevel.BACHELOR, limits.getCapacity()));
+        registry.addCourse(new Course("algorithms", CourseLevel.MASTER, limits.getCapacity()));
+        registry.addCourse(new Course("advanced_programming", CourseLevel.MASTER, limits.getCapacity()));
+        registry.addCourse(new Course("mathematical_analysis", CourseLevel.MASTER, limits.getCapacity()));
+        registry.addCourse(new Course("computer_vision", CourseLevel.MASTER, limits.getCapacity()));
         final int aliceId = 0;
         final int bobId = 1;
         final int alexId = 2;
@@ -218,60 +354,49 @@ public class UniversityCourseManagementSystem {
         final int advancedProgrammingId = 4;
         final int mathematicalAnalysisId = 5;
 
-        ((Student) humans.get(aliceId)).enroll(courses.get(javaBeginnerId));
-        ((Student) humans.get(aliceId)).enroll(courses.get(javaIntermediateId));
-        ((Student) humans.get(aliceId)).enroll(courses.get(pythonBasicsId));
-
-        ((Student) humans.get(bobId)).enroll(courses.get(javaBeginnerId));
-        ((Student) humans.get(bobId)).enroll(courses.get(algorithmsId));
+        registry.student(aliceId).enroll(registry.course(javaBeginnerId));
+        registry.student(aliceId).enroll(registry.course(javaIntermediateId));
+        registry.student(aliceId).enroll(registry.course(pythonBasicsId));
 
-        ((Student) humans.get(alexId)).enroll(courses.get(advancedProgrammingId));
+        registry.student(bobId).enroll(registry.course(javaBeginnerId));
+        registry.student(bobId).enroll(registry.course(algorithmsId));
 
-        ((Professor) humans.get(aliId)).teach(courses.get(javaBeginnerId));
-        ((Professor) humans.get(aliId)).teach(courses.get(javaIntermediateId));
+        registry.student(alexId).enroll(registry.course(advancedProgrammingId));
 
-        ((Professor) humans.get(ahmedId)).teach(courses.get(pythonBasicsId));
-        ((Professor) humans.get(ahmedId)).teach(courses.get(advancedProgrammingId));
+        registry.professor(aliId).teach(registry.course(javaBeginnerId));
+        registry.professor(aliId).teach(registry.course(javaIntermediateId));
 
-        ((Professor) humans.get(andreyId)).teach(courses.get(mathematicalAnalysisId));
+        registry.professor(ahmedId).teach(registry.course(pythonBasicsId));
+        registry.professor(ahmedId).teach(registry.course(advancedProgrammingId));
 
-        isStudent.put(aliceId, true);
-        isStudent.put(bobId, true);
-        isStudent.put(alexId, true);
-        isStudent.put(aliId, false);
-        isStudent.put(ahmedId, false);
-        isStudent.put(andreyId, false);
+        registry.professor(andreyId).teach(registry.course(mathematicalAnalysisId));
     }
     /**
      * Executes a command based on user input.
      *
      * @param command the command to execute
-     * @param s       the Scanner for user input
+     * @param s       the command input
      * @return the result of the command execution
      */
-    static String execute(String command, Scanner s) {
-        if (Objects.equals(command, "course")) {
-            return course(s);
-        }
-        if (Objects.equals(command, "student")) {
-            return student(s);
-        }
-        if (Objects.equals(command, "professor")) {
-            return professor(s);
-        }
-        if (Objects.equals(command, "enroll")) {
-            return enroll(s);
-        }
-        if (Objects.equals(command, "drop")) {
-            return drop(s);
-        }
-        if (Objects.equals(command, "exempt")) {
-            return exempt(s);
+    static Outcome execute(String command, CommandReader s) {
+        switch (command) {
+            case "course":
+                return course(s);
+            case "student":
+                return student(s);
+            case "professor":
+                return professor(s);
+            case "enroll":
+                return enroll(s);
+            case "drop":
+                return drop(s);
+            case "exempt":
+                return exempt(s);
+            case "teach":
+                return teach(s);
+            default:
+                return Outcome.WRONG_INPUTS;
         }
-        if (Objects.equals(command, "teach")) {
-            return teach(s);
-        }
-        return "Wrong inputs";
     }
 
     /**
@@ -281,7 +406,7 @@ public class UniversityCourseManagementSystem {
      * @return the university member
      */
     static UniversityMember member(int memberId) {
-        return humans.get(memberId);
+        return registry.member(memberId);
     }
 
     /**
@@ -291,203 +416,850 @@ public class UniversityCourseManagementSystem {
      * @return the course
      */
     static Course course(int courseId) {
-        return courses.get(courseId);
+        return registry.course(courseId);
     }
 
     /**
      * Handles the 'course' command, adding a new course to the system.
      *
-     * @param s the Scanner for user input
+     * @param s the command input
      * @return the result of the command execution
      */
-    static String course(Scanner s) {
+    static Outcome course(CommandReader s) {
         String courseName = inputString(s);
         if (!validateCourseName(courseName) || COMMANDS.contains(courseName)) {
-            return "Wrong inputs";
+            return Outcome.WRONG_INPUTS;
         }
 
-        for (Course c : courses) {
-            if (Objects.equals(c.getCourseName(), courseName)) {
-                return "Course exists";
-            }
+        if (registry.hasCourse(courseName)) {
+            return Outcome.COURSE_EXISTS;
         }
 
         String courseLevel = inputString(s);
         if (!(Objects.equals(courseLevel, "bachelor") || Objects.equals(courseLevel, "master"))) {
-            return "Wrong inputs";
+            return Outcome.WRONG_INPUTS;
         }
 
         CourseLevel cl = Objects.equals(courseLevel, "bachelor") ? CourseLevel.BACHELOR : CourseLevel.MASTER;
-        courses.add(new Course(courseName, cl));
-        return ADD_SUCCESS;
+        if (registry.addCourse(new Course(courseName, cl, limits.getCapacity())) < 0) {
+            // Added by another client since the check
+            return Outcome.COURSE_EXISTS;
+        }
+        return Outcome.ADDED;
     }
 
     /**
      * Handles the 'student' command, adding a new student to the system.
      *
-     * @param s the Scanner for user input
+     * @param s the command input
      * @return the result of the command execution
      */
-    static String student(Scanner s) {
+    static Outcome student(CommandReader s) {
         String name = inputString(s);
         if (!validateName(name) || COMMANDS.contains(name)) {
-            return "Wrong inputs";
+            return Outcome.WRONG_INPUTS;
         }
 
-        humans.add(
-                new Student(name)
-        );
-        isStudent.put(humans.size() - 1, true);
-        return ADD_SUCCESS;
+        registry.addStudent(new Student(name, limits.getMaxEnrollment()));
+        return Outcome.ADDED;
     }
 
     /**
      * Handles the 'professor' command, adding a new professor to the system.
      *
-     * @param s the Scanner for user input
+     * @param s the command input
      * @return the result of the command execution
      */
-    static String professor(Scanner s) {
+    static Outcome professor(CommandReader s) {
         String name = inputString(s);
         if (!validateName(name) || COMMANDS.contains(name)) {
-            return "Wrong inputs";
+            return Outcome.WRONG_INPUTS;
         }
 
-        humans.add(
-                new Professor(name)
-        );
-        isStudent.put(humans.size() - 1, false);
-        return ADD_SUCCESS;
+        registry.addProfessor(new Professor(name, limits.getMaxLoad()));
+        return Outcome.ADDED;
     }
 
     /**
      * Handles the 'enroll' command, allowing a student to enroll in a course.
      *
-     * @param s the Scanner for user input
+     * @param s the command input
      * @return the result of the command execution
      */
-    static String enroll(Scanner s) {
+    static Outcome enroll(CommandReader s) {
         int memberId = inputInt(s) - 1;
-        if (memberId > humans.size() - 1 || memberId < 0) {
-            return "Wrong inputs";
+        if (memberId > registry.memberCount() - 1 || memberId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
         int courseId = inputInt(s) - 1;
-        if (courseId > courses.size() - 1 || courseId < 0) {
-            return "Wrong inputs";
+        if (courseId > registry.courseCount() - 1 || courseId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
 
-        UniversityMember person = member(memberId);
-        Course course = course(courseId);
+        return engine.enroll(memberId, courseId);
+    }
 
-        if (!isStudent.get(memberId)) {
-            return "Wrong inputs";
+    /**
+     * Handles the 'drop' command, allowing a student to drop a course.
+     *
+     * @param s the command input
+     * @return the result of the command execution
+     */
+    static Outcome drop(CommandReader s) {
+        int memberId = inputInt(s) - 1;
+        if (memberId > registry.memberCount() - 1 || memberId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
-        if (course.isFull()) {
-            return "Course if full";
+        int courseId = inputInt(s) - 1;
+        if (courseId > registry.courseCount() - 1 || courseId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
-        if (course.enrolled((Student) person)) {
-            return "Student is already enrolled in this course";
+
+        return engine.drop(memberId, courseId);
+    }
+
+    /**
+     * Handles the 'exempt' command, allowing a professor to exempt a course.
+     *
+     * @param s the command input
+     * @return the result of the command execution
+     */
+    static Outcome exempt(CommandReader s) {
+        int memberId = inputInt(s) - 1;
+        if (memberId > registry.memberCount() - 1 || memberId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
-        if (((Student) person).enrolledCourses() == ((Student) person).getMaxEnrollment()) {
-            return "Maximum enrollment is reached for the student";
+        int courseId = inputInt(s) - 1;
+        if (courseId > registry.courseCount() - 1 || courseId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
 
-        ((Student) person).enroll(course);
-        return ENROLL_SUCCESS;
+        return engine.exempt(memberId, courseId);
     }
 
     /**
-     * Handles the 'drop' command, allowing a student to drop a course.
+     * Handles the 'teach' command, allowing a professor to teach a course.
      *
-     * @param s the Scanner for user input
+     * @param s the command input
      * @return the result of the command execution
      */
-    static String drop(Scanner s) {
+    static Outcome teach(CommandReader s) {
         int memberId = inputInt(s) - 1;
-        if (memberId > humans.size() - 1 || memberId < 0) {
-            return "Wrong inputs";
+        if (memberId > registry.memberCount() - 1 || memberId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
         int courseId = inputInt(s) - 1;
-        if (courseId > courses.size() - 1 || courseId < 0) {
-            return "Wrong inputs";
+        if (courseId > registry.courseCount() - 1 || courseId < 0) {
+            return Outcome.WRONG_INPUTS;
         }
 
-        UniversityMember person = member(memberId);
-        Course course = course(courseId);
+        return engine.teach(memberId, courseId);
+    }
+}
+
+/**
+ * The CommandReader class splits a byte stream into whitespace-separated tokens, as
+ * {@code Scanner.next()} does, without regular expressions or a decoder on the common path.
+ * Tokens of ASCII bytes are split on ASCII whitespace, parsed and lowercased in place in the read
+ * buffer, and copied only when they span two reads. A token with other bytes is decoded in the
+ * default charset, as Scanner decodes, and split on {@link Character#isWhitespace(char)}, so it
+ * yields the same tokens Scanner would.
+ */
+class CommandReader {
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Whether each ASCII byte is whitespace to {@link Character#isWhitespace(char)}.
+     */
+    private static final boolean[] WHITESPACE = new boolean[128];
 
-        if (!isStudent.get(memberId)) {
-            return "Wrong inputs";
+    static {
+        for (char c = 0; c < WHITESPACE.length; c++) {
+            WHITESPACE[c] = Character.isWhitespace(c);
         }
-        if (!course.enrolled((Student) person)) {
-            return "Student is not enrolled in this course";
+    }
+
+    /**
+     * Source of the bytes.
+     */
+    private final InputStream in;
+    /**
+     * Bytes read and not consumed yet.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * Position of the next byte in the buffer.
+     */
+    private int position;
+    /**
+     * Number of valid bytes in the buffer.
+     */
+    private int limit;
+    /**
+     * Bytes of tokens that span two reads.
+     */
+    private byte[] spanned = new byte[64];
+    /**
+     * Array holding the current token: the buffer, or {@link #spanned}.
+     */
+    private byte[] token = buffer;
+    /**
+     * Start of the current token in its array.
+     */
+    private int tokenStart;
+    /**
+     * Length of the current token, 0 if none is read ahead.
+     */
+    private int tokenLength;
+    /**
+     * Tokens split from a decoded non-ASCII token, not returned yet.
+     */
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+    /**
+     * Lowercase words returned as the given instances instead of new strings.
+     */
+    private final String[] keywords;
+    /**
+     * Bytes of the keywords.
+     */
+    private final byte[][] keywordBytes;
+    /**
+     * Output flushed before the reader waits for more input, or null.
+     */
+    private final Flushable output;
+
+    /**
+     * Constructor for the CommandReader class.
+     * @param in The source of the commands
+     */
+    CommandReader(InputStream in) {
+        this(in, List.of());
+    }
+
+    /**
+     * Constructor for a reader that returns frequent words without allocating.
+     * @param in The source of the commands
+     * @param keywords Lowercase ASCII words, such as the command names
+     */
+    CommandReader(InputStream in, List<String> keywords) {
+        this(in, keywords, null);
+    }
+
+    /**
+     * Constructor for an interactive reader: responses to the commands read so far are flushed
+     * before it reads more, so they are seen before the next command is typed.
+     * @param in The source of the commands
+     * @param keywords Lowercase ASCII words, such as the command names
+     * @param output The stream responses are written to, or null
+     */
+    CommandReader(InputStream in, List<String> keywords, Flushable output) {
+        this.in = in;
+        this.output = output;
+        this.keywords = keywords.toArray(new String[0]);
+        this.keywordBytes = new byte[this.keywords.length][];
+        for (int i = 0; i < this.keywords.length; i++) {
+            keywordBytes[i] = this.keywords[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds a byte, reading more if it is consumed.
+     * @return false at the end of the input
+     */
+    private boolean fill() {
+        if (position < limit) {
+            return true;
+        }
+        try {
+            if (output != null) {
+                output.flush();
+            }
+            limit = in.read(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        position = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
 
-        ((Student) person).drop(course);
-        return DROP_SUCCESS;
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && WHITESPACE[b];
     }
 
     /**
-     * Handles the 'exempt' command, allowing a professor to exempt a course.
-     *
-     * @param s the Scanner for user input
-     * @return the result of the command execution
+     * Checks whether another token follows, reading it ahead.
+     * @return true if a token is available
      */
-    static String exempt(Scanner s) {
-        int memberId = inputInt(s) - 1;
-        if (memberId > humans.size() - 1 || memberId < 0) {
-            return "Wrong inputs";
+    public boolean hasNext() {
+        while (pending.isEmpty() && tokenLength == 0) {
+            do {
+                if (!fill()) {
+                    return false;
+                }
+                while (position < limit && isWhitespace(buffer[position])) {
+                    position++;
+                }
+            } while (position == limit);
+            int start = position;
+            boolean ascii = true;
+            while (position < limit && !isWhitespace(buffer[position])) {
+                ascii &= buffer[position] >= 0;
+                position++;
+            }
+            if (position < limit) {
+                token = buffer;
+                tokenStart = start;
+                tokenLength = position - start;
+            } else {
+                ascii &= readSpanned(start);
+            }
+            if (!ascii) {
+                splitDecoded();
+            }
         }
-        int courseId = inputInt(s) - 1;
-        if (courseId > courses.size() - 1 || courseId < 0) {
-            return "Wrong inputs";
+        return true;
+    }
+
+    /**
+     * Reads the rest of a token that reaches the end of the buffer into {@link #spanned}.
+     * @param start The start of the token in the buffer
+     * @return true if the bytes after the buffer are ASCII
+     */
+    private boolean readSpanned(int start) {
+        int length = 0;
+        boolean ascii = true;
+        while (true) {
+            int count = position - start;
+            if (length + count > spanned.length) {
+                spanned = Arrays.copyOf(spanned, Math.max(spanned.length * 2, length + count));
+            }
+            System.arraycopy(buffer, start, spanned, length, count);
+            length += count;
+            // The token ends at whitespace in the buffer, or at the end of the input
+            if (position < limit || !fill()) {
+                break;
+            }
+            start = position;
+            while (position < limit && !isWhitespace(buffer[position])) {
+                ascii &= buffer[position] >= 0;
+                position++;
+            }
         }
+        token = spanned;
+        tokenStart = 0;
+        tokenLength = length;
+        return ascii;
+    }
 
-        UniversityMember person = member(memberId);
-        Course course = course(courseId);
+    private void splitDecoded() {
+        String decoded = new String(token, tokenStart, tokenLength, Charset.defaultCharset());
+        tokenLength = 0;
+        int start = -1;
+        for (int i = 0; i <= decoded.length(); i++) {
+            boolean end = i == decoded.length() || Character.isWhitespace(decoded.charAt(i));
+            if (end && start >= 0) {
+                pending.add(decoded.substring(start, i));
+                start = -1;
+            } else if (!end && start < 0) {
+                start = i;
+            }
+        }
+    }
 
-        if (isStudent.get(memberId)) {
-            return "Wrong inputs";
+    /**
+     * Reads the next token in lowercase.
+     * @return the token, lowercased as {@link String#toLowerCase()} does
+     * @throws NoSuchElementException if no token is left
+     */
+    public String nextLowerCase() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
-        if (!((Professor) person).exempt(course)) {
-            return "Professor is not teaching this course";
+        if (!pending.isEmpty()) {
+            return pending.poll().toLowerCase();
         }
+        int start = tokenStart;
+        int length = tokenLength;
+        tokenLength = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = token[i];
+            if (b >= 'A' && b <= 'Z') {
+                token[i] = (byte) (b | 0x20);
+            }
+        }
+        for (int k = 0; k < keywordBytes.length; k++) {
+            byte[] keyword = keywordBytes[k];
+            if (keyword.length == length && Arrays.equals(keyword, 0, length, token, start, start + length)) {
+                return keywords[k];
+            }
+        }
+        return new String(token, start, length, StandardCharsets.ISO_8859_1);
+    }
 
-        return EXEMPT_SUCCESS;
+    /**
+     * Reads the next token as a non-negative decimal number.
+     * @return the number, or -1 if the token has a character other than 0-9
+     * @throws NumberFormatException if the digits do not fit in an int
+     * @throws NoSuchElementException if no token is left
+     */
+    public int nextDigits() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (!pending.isEmpty()) {
+            String digits = pending.poll();
+            for (int i = 0; i < digits.length(); i++) {
+                if (!UniversityCourseManagementSystem.isDigit(digits.charAt(i))) {
+                    return -1;
+                }
+            }
+            return Integer.parseInt(digits);
+        }
+        int start = tokenStart;
+        int length = tokenLength;
+        tokenLength = 0;
+        long value = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = token[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            if (value <= Integer.MAX_VALUE) {
+                value = value * 10 + (b - '0');
+            }
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + new String(token, start, length, StandardCharsets.ISO_8859_1) + "\"");
+        }
+        return (int) value;
     }
+}
 
+/**
+ * The UniversityLimits class holds the capacity of courses and the loads of members.
+ * The defaults are the original fixed limits.
+ */
+class UniversityLimits {
     /**
-     * Handles the 'teach' command, allowing a professor to teach a course.
-     *
-     * @param s the Scanner for user input
-     * @return the result of the command execution
+     * Maximum students in a course.
      */
-    static String teach(Scanner s) {
-        int memberId = inputInt(s) - 1;
-        if (memberId > humans.size() - 1 || memberId < 0) {
-            return "Wrong inputs";
+    private int capacity = Course.DEFAULT_CAPACITY;
+    /**
+     * Maximum courses a student enrolls in.
+     */
+    private int maxEnrollment = Student.DEFAULT_MAX_ENROLLMENT;
+    /**
+     * Maximum courses a professor teaches.
+     */
+    private int maxLoad = Professor.DEFAULT_MAX_LOAD;
+
+    /**
+     * Builds limits from command line arguments. Recognized options are "--capacity=N",
+     * "--max-enrollment=N" and "--max-load=N"; other arguments are ignored.
+     * @param args The command line arguments
+     * @return the limits
+     */
+    public static UniversityLimits fromArgs(String[] args) {
+        UniversityLimits limits = new UniversityLimits();
+        for (String arg : args) {
+            if (arg.startsWith("--capacity=")) {
+                limits.capacity = Integer.parseInt(arg.substring("--capacity=".length()));
+            } else if (arg.startsWith("--max-enrollment=")) {
+                limits.maxEnrollment = Integer.parseInt(arg.substring("--max-enrollment=".length()));
+            } else if (arg.startsWith("--max-load=")) {
+                limits.maxLoad = Integer.parseInt(arg.substring("--max-load=".length()));
+            }
         }
-        int courseId = inputInt(s) - 1;
-        if (courseId > courses.size() - 1 || courseId < 0) {
-            return "Wrong inputs";
+        return limits;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxEnrollment() {
+        return maxEnrollment;
+    }
+
+    public int getMaxLoad() {
+        return maxLoad;
+    }
+}
+
+/**
+ * The IdSet class is a set of positive ids: an open-addressing hash table of ints with linear
+ * probing and backward-shift deletion, so adding, removing and checking an id take constant time
+ * without boxing.
+ */
+class IdSet {
+    /**
+     * Initial number of slots, a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+    /**
+     * Marker of a free slot; ids start from 1.
+     */
+    private static final int EMPTY = 0;
+    /**
+     * Table shared by all sets that never held an id.
+     */
+    private static final int[] NO_SLOTS = new int[0];
+    /**
+     * Slots of the table.
+     */
+    private int[] slots = NO_SLOTS;
+    /**
+     * Number of ids in the set.
+     */
+    private int size;
+
+    private static int home(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int find(int id) {
+        if (size == 0) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        int i = home(id, mask);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == id) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean contains(int id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Adds an id.
+     * @param id The id, at least 1
+     * @return true if the id was not in the set
+     */
+    public boolean add(int id) {
+        if ((size + 1) * 2 > slots.length) {
+            resize(Math.max(INITIAL_CAPACITY, slots.length * 2));
+        }
+        int mask = slots.length - 1;
+        int i = home(id, mask);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == id) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an id.
+     * @param id The id
+     * @return true if the id was in the set
+     */
+    public boolean remove(int id) {
+        int i = find(id);
+        if (i < 0) {
+            return false;
         }
+        int mask = slots.length - 1;
+        // Move the following ids of the probe chain back, so no tombstones are needed
+        int hole = i;
+        int j = (i + 1) & mask;
+        while (slots[j] != EMPTY) {
+            int h = home(slots[j], mask);
+            if (((j - h) & mask) >= ((j - hole) & mask)) {
+                slots[hole] = slots[j];
+                hole = j;
+            }
+            j = (j + 1) & mask;
+        }
+        slots[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        int[] old = slots;
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id : old) {
+            if (id != EMPTY) {
+                int i = home(id, mask);
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = id;
+            }
+        }
+    }
+}
+
+/**
+ * The UniversityRegistry class holds the members and courses of the system.
+ * Ids are positions in the member and course arrays, so lookups by id take constant time;
+ * course names are hashed for the existence check, and whether a member is a student is kept
+ * in a primitive array instead of boxed map entries.
+ * The registry is safe for concurrent use. Additions are serialized on the registry; lookups
+ * take no lock: an addition fills its slot before it publishes the new count through a volatile
+ * write, so an id below the count a reader sees always refers to a complete entry. Arrays only
+ * grow by copying, and a replaced array is published before the count that needs it.
+ */
+class UniversityRegistry {
+    /**
+     * Initial length of the member and course arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Members by id.
+     */
+    private volatile UniversityMember[] members = new UniversityMember[INITIAL_CAPACITY];
+    /**
+     * Whether the member of each id is a student.
+     */
+    private volatile boolean[] students = new boolean[INITIAL_CAPACITY];
+    /**
+     * Number of members; ids below it are published.
+     */
+    private volatile int memberCount;
+    /**
+     * Courses by id.
+     */
+    private volatile Course[] courses = new Course[INITIAL_CAPACITY];
+    /**
+     * Number of courses; ids below it are published.
+     */
+    private volatile int courseCount;
+    /**
+     * Courses by name.
+     */
+    private final Map<String, Course> coursesByName = new ConcurrentHashMap<>();
 
-        UniversityMember person = member(memberId);
-        Course course = course(courseId);
+    /**
+     * Adds a student.
+     * @param student The student
+     * @return the id of the student
+     */
+    public int addStudent(Student student) {
+        return addMember(student, true);
+    }
+
+    /**
+     * Adds a professor.
+     * @param professor The professor
+     * @return the id of the professor
+     */
+    public int addProfessor(Professor professor) {
+        return addMember(professor, false);
+    }
 
-        if (isStudent.get(memberId)) {
-            return "Wrong inputs";
+    private synchronized int addMember(UniversityMember member, boolean student) {
+        int id = memberCount;
+        if (id == members.length) {
+            members = Arrays.copyOf(members, id * 2);
+            students = Arrays.copyOf(students, id * 2);
         }
-        if (((Professor) person).assignedCourses() == 2) {
-            return "Professor's load is complete";
+        members[id] = member;
+        students[id] = student;
+        memberCount = id + 1;
+        return id;
+    }
+
+    /**
+     * Adds a course under its name, replacing no existing one.
+     * @param course The course
+     * @return the id of the course, or -1 if a course with its name exists
+     */
+    public synchronized int addCourse(Course course) {
+        if (coursesByName.putIfAbsent(course.getCourseName(), course) != null) {
+            return -1;
         }
-        if (((Professor) person).isTeaching(course)) {
-            return "Professor is already teaching this course";
+        int id = courseCount;
+        if (id == courses.length) {
+            courses = Arrays.copyOf(courses, id * 2);
         }
+        courses[id] = course;
+        courseCount = id + 1;
+        return id;
+    }
+
+    public boolean hasCourse(String courseName) {
+        return coursesByName.containsKey(courseName);
+    }
+
+    public int memberCount() {
+        return memberCount;
+    }
+
+    public int courseCount() {
+        return courseCount;
+    }
+
+    public UniversityMember member(int memberId) {
+        return members[memberId];
+    }
 
-        ((Professor) person).teach(course);
-        UniversityMember.getNumberOfMembers();
+    public Course course(int courseId) {
+        return courses[courseId];
+    }
+
+    public boolean isStudent(int memberId) {
+        return students[memberId];
+    }
+
+    /**
+     * Retrieves a member known to be a student.
+     * @param memberId the ID of the student
+     * @return the student
+     */
+    public Student student(int memberId) {
+        return (Student) members[memberId];
+    }
 
-        return TEACH_SUCCESS;
+    /**
+     * Retrieves a member known to be a professor.
+     * @param memberId the ID of the professor
+     * @return the professor
+     */
+    public Professor professor(int memberId) {
+        return (Professor) members[memberId];
+    }
+}
+
+/**
+ * The EnrollmentEngine class carries out enrollments and teaching assignments, and is safe
+ * for many clients at once.
+ * Each command checks and changes its member and course while holding their monitors, always
+ * the member's before the course's; no thread waits for a member while holding a course, so
+ * clients cannot deadlock, and a course never takes more students than its capacity.
+ * Teaching assignments are recorded on the professor only, so they lock just the professor.
+ */
+class EnrollmentEngine {
+    /**
+     * Members and courses the commands refer to.
+     */
+    private final UniversityRegistry registry;
+
+    /**
+     * Constructor for the EnrollmentEngine class.
+     * @param universityRegistry The members and courses
+     */
+    EnrollmentEngine(UniversityRegistry universityRegistry) {
+        registry = universityRegistry;
+    }
+
+    private boolean exists(int memberId, int courseId) {
+        return memberId >= 0 && memberId < registry.memberCount()
+                && courseId >= 0 && courseId < registry.courseCount();
+    }
+
+    /**
+     * Enrolls a student in a course.
+     * @param memberId the ID of the student
+     * @param courseId the ID of the course
+     * @return the result of the enrollment
+     */
+    public Outcome enroll(int memberId, int courseId) {
+        if (!exists(memberId, courseId) || !registry.isStudent(memberId)) {
+            return Outcome.WRONG_INPUTS;
+        }
+        Student student = registry.student(memberId);
+        Course course = registry.course(courseId);
+        synchronized (student) {
+            synchronized (course) {
+                if (course.isFull()) {
+                    return Outcome.COURSE_FULL;
+                }
+                if (course.enrolled(student)) {
+                    return Outcome.ALREADY_ENROLLED;
+                }
+                if (student.enrolledCourses() == student.getMaxEnrollment()) {
+                    return Outcome.MAX_ENROLLMENT;
+                }
+                student.enroll(course);
+                return Outcome.ENROLLED;
+            }
+        }
+    }
+
+    /**
+     * Drops a student from a course.
+     * @param memberId the ID of the student
+     * @param courseId the ID of the course
+     * @return the result of the drop
+     */
+    public Outcome drop(int memberId, int courseId) {
+        if (!exists(memberId, courseId) || !registry.isStudent(memberId)) {
+            return Outcome.WRONG_INPUTS;
+        }
+        Student student = registry.student(memberId);
+        Course course = registry.course(courseId);
+        synchronized (student) {
+            synchronized (course) {
+                if (!student.drop(course)) {
+                    return Outcome.NOT_ENROLLED;
+                }
+                return Outcome.DROPPED;
+            }
+        }
+    }
+
+    /**
+     * Exempts a professor from teaching a course.
+     * @param memberId the ID of the professor
+     * @param courseId the ID of the course
+     * @return the result of the exemption
+     */
+    public Outcome exempt(int memberId, int courseId) {
+        if (!exists(memberId, courseId) || registry.isStudent(memberId)) {
+            return Outcome.WRONG_INPUTS;
+        }
+        Professor professor = registry.professor(memberId);
+        if (!professor.exempt(registry.course(courseId))) {
+            return Outcome.NOT_TEACHING;
+        }
+        return Outcome.EXEMPTED;
+    }
+
+    /**
+     * Assigns a professor to teach a course.
+     * @param memberId the ID of the professor
+     * @param courseId the ID of the course
+     * @return the result of the assignment
+     */
+    public Outcome teach(int memberId, int courseId) {
+        if (!exists(memberId, courseId) || registry.isStudent(memberId)) {
+            return Outcome.WRONG_INPUTS;
+        }
+        Professor professor = registry.professor(memberId);
+        Course course = registry.course(courseId);
+        synchronized (professor) {
+            if (professor.assignedCourses() == professor.getMaxLoad()) {
+                return Outcome.LOAD_COMPLETE;
+            }
+            if (professor.isTeaching(course)) {
+                return Outcome.ALREADY_TEACHING;
+            }
+            professor.teach(course);
+            return Outcome.ASSIGNED;
+        }
     }
 }
 
@@ -505,9 +1277,9 @@ interface Enrollable {
 
 abstract class UniversityMember {
     /**
-     * Contains total number of Members.
+     * Contains total number of Members; the last member id allocated.
      */
-    private static int numberOfMembers = 0;
+    private static final AtomicInteger NUMBER_OF_MEMBERS = new AtomicInteger();
     /**
      * Member id of UniversityMember.
      */
@@ -518,7 +1290,19 @@ abstract class UniversityMember {
     private String memberName;
 
     public static int getNumberOfMembers() {
-        return numberOfMembers;
+        return NUMBER_OF_MEMBERS.get();
+    }
+
+    /**
+     * Allocates the id of a new member. Ids are unique even when members are created concurrently.
+     * @return the next member id
+     */
+    static int nextMemberId() {
+        return NUMBER_OF_MEMBERS.incrementAndGet();
+    }
+
+    public int getMemberId() {
+        return memberId;
     }
 
     /**
@@ -527,12 +1311,114 @@ abstract class UniversityMember {
      * @param memName The member's name
      */
     public UniversityMember(int memId, String memName) {
-        numberOfMembers++;
         memberId = memId;
         memberName = memName.toLowerCase();
     }
 }
 
+/**
+ * The Outcome enum represents the responses of the system to commands.
+ * Each response is encoded once, as the line it is printed as.
+ */
+enum Outcome {
+    /**
+     * Success addition.
+     */
+    ADDED("Added successfully", true),
+    /**
+     * Success enrollment.
+     */
+    ENROLLED("Enrolled successfully", true),
+    /**
+     * Success drop.
+     */
+    DROPPED("Dropped successfully", true),
+    /**
+     * Success exemption.
+     */
+    EXEMPTED("Professor is exempted", true),
+    /**
+     * Success teaching assignment.
+     */
+    ASSIGNED("Professor is successfully assigned to teach this course", true),
+    /**
+     * Malformed command or unknown member or course.
+     */
+    WRONG_INPUTS("Wrong inputs", false),
+    /**
+     * A course with the name is already added.
+     */
+    COURSE_EXISTS("Course exists", false),
+    /**
+     * The course has no free places.
+     */
+    COURSE_FULL("Course if full", false),
+    /**
+     * The student is already in the course.
+     */
+    ALREADY_ENROLLED("Student is already enrolled in this course", false),
+    /**
+     * The student takes the maximum number of courses.
+     */
+    MAX_ENROLLMENT("Maximum enrollment is reached for the student", false),
+    /**
+     * The student is not in the course.
+     */
+    NOT_ENROLLED("Student is not enrolled in this course", false),
+    /**
+     * The professor does not teach the course.
+     */
+    NOT_TEACHING("Professor is not teaching this course", false),
+    /**
+     * The professor teaches the maximum number of courses.
+     */
+    LOAD_COMPLETE("Professor's load is complete", false),
+    /**
+     * The professor already teaches the course.
+     */
+    ALREADY_TEACHING("Professor is already teaching this course", false);
+
+    /**
+     * The response text.
+     */
+    private final String message;
+    /**
+     * Whether the command was carried out.
+     */
+    private final boolean success;
+    /**
+     * The response and a line separator, as println would print them.
+     */
+    private final byte[] line;
+
+    Outcome(String message, boolean success) {
+        this.message = message;
+        this.success = success;
+        this.line = (message + System.lineSeparator()).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the encoded response line; it is shared, so callers must not modify it.
+     * @return the bytes of the response and a line separator
+     */
+    byte[] getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
+
 /**
  * The CourseLevel enum represents the level of a university course.
  */
@@ -549,16 +1435,17 @@ enum CourseLevel {
 
 /**
  * The Course class represents a university course.
+ * Its roster is guarded by the course's monitor.
  */
 class Course {
     /**
-     * Maximum members in course.
+     * Maximum members in course unless configured.
      */
-    private static final int CAPACITY = 3;
+    static final int DEFAULT_CAPACITY = 3;
     /**
-     * Total number of courses.
+     * Total number of courses; the last course id allocated.
      */
-    private static int numberOfCourses = 0;
+    private static final AtomicInteger NUMBER_OF_COURSES = new AtomicInteger();
     /**
      * ID of course.
      */
@@ -568,9 +1455,13 @@ class Course {
      */
     private String courseName;
     /**
-     * List of students enrolled to this course.
+     * Maximum members in course.
+     */
+    private final int capacity;
+    /**
+     * Ids of students enrolled to this course.
      */
-    private List<Student> enrolledStudents;
+    private final IdSet enrolledStudents = new IdSet();
     /**
      * Level of course.
      */
@@ -582,54 +1473,82 @@ class Course {
      * @param cLevel The course level (BACHELOR or MASTER)
      */
      public Course(String cName, CourseLevel cLevel) {
-        courseId = ++numberOfCourses;
+        this(cName, cLevel, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for a course with its own capacity.
+     * @param cName The course name
+     * @param cLevel The course level (BACHELOR or MASTER)
+     * @param cCapacity The maximum number of students
+     */
+    public Course(String cName, CourseLevel cLevel, int cCapacity) {
+        courseId = NUMBER_OF_COURSES.incrementAndGet();
         courseLevel = cLevel;
         courseName = cName;
-        enrolledStudents = new ArrayList<>();
+        capacity = cCapacity;
     }
 
     public String getCourseName() {
         return courseName;
     }
 
-    public void remove(Student student) {
-        enrolledStudents.remove(student);
+    public int getCourseId() {
+        return courseId;
+    }
+
+    public synchronized void remove(Student student) {
+        enrolledStudents.remove(student.getMemberId());
     }
-    public boolean enrolled(Student student) {
-        return enrolledStudents.contains(student);
+    public synchronized boolean enrolled(Student student) {
+        return enrolledStudents.contains(student.getMemberId());
     }
-    public void add(Student student) {
-        enrolledStudents.add(student);
+    public synchronized void add(Student student) {
+        enrolledStudents.add(student.getMemberId());
     }
     /**
      * Checks if the course is full.
      * @return true if the course is full, false otherwise
      */
-    public boolean isFull() {
-        return CAPACITY == enrolledStudents.size();
+    public synchronized boolean isFull() {
+        return capacity == enrolledStudents.size();
     }
 }
 
 /**
  * The Professor class represents a professor at the university.
+ * Its assignments are guarded by the professor's monitor.
  */
 class Professor extends UniversityMember {
+    /**
+     * Maximum courses to teach unless configured.
+     */
+    static final int DEFAULT_MAX_LOAD = 2;
     /**
      * Maximum courses to teach.
      */
-    private static final int MAX_LOAD = 2;
+    private final int maxLoad;
     /**
-     * List of assigned courses.
+     * Ids of assigned courses.
      */
-    private List<Course> assignedCourses;
+    private final IdSet assignedCourses = new IdSet();
 
     /**
      * Constructor for the Professor class.
      * @param memName The professor's name
      */
      public Professor(String memName) {
-        super(UniversityCourseManagementSystem.getNumOfMembers() + 1, memName);
-        assignedCourses = new ArrayList<>();
+        this(memName, DEFAULT_MAX_LOAD);
+    }
+
+    /**
+     * Constructor for a professor with their own load limit.
+     * @param memName The professor's name
+     * @param memMaxLoad The maximum number of courses to teach
+     */
+    public Professor(String memName, int memMaxLoad) {
+        super(nextMemberId(), memName);
+        maxLoad = memMaxLoad;
     }
 
     /**
@@ -637,63 +1556,70 @@ class Professor extends UniversityMember {
      * @param course The course to teach
      * @return true if the assignment is successful, false otherwise
      */
-    public boolean teach(Course course) {
-        if (MAX_LOAD != assignedCourses.size() && !assignedCourses.contains(course)) {
-            assignedCourses.add(course);
-            return true;
-        }
-        return false;
+    public synchronized boolean teach(Course course) {
+        return maxLoad != assignedCourses.size() && assignedCourses.add(course.getCourseId());
     }
 
-    public boolean isTeaching(Course course) {
-        return assignedCourses.contains(course);
+    public synchronized boolean isTeaching(Course course) {
+        return assignedCourses.contains(course.getCourseId());
     }
-    public int assignedCourses() {
+    public synchronized int assignedCourses() {
         return assignedCourses.size();
     }
+    public int getMaxLoad() {
+        return maxLoad;
+    }
 
     /**
      * Exempts the professor from teaching a course.
      * @param course The course to exempt
      * @return true if the exemption is successful, false otherwise
      */
-    public boolean exempt(Course course) {
-        boolean exempted = false;
-        if (assignedCourses.contains(course)) {
-            assignedCourses.remove(course);
-            exempted = true;
-        }
-        return exempted;
+    public synchronized boolean exempt(Course course) {
+        return assignedCourses.remove(course.getCourseId());
     }
 }
 
 /**
  * The Student class represents a student at the university.
+ * Its courses are guarded by the student's monitor, which is taken before a course's.
  */
 class Student extends UniversityMember implements Enrollable {
+    /**
+     * Maximum courses to enroll unless configured.
+     */
+    static final int DEFAULT_MAX_ENROLLMENT = 3;
     /**
      * Maximum courses to enroll.
      */
-    private static final int MAX_ENROLLMENT = 3;
+    private final int maxEnrollment;
     /**
-     * List of enrolled courses.
+     * Ids of enrolled courses.
      */
-    private List<Course> enrolledCourses;
+    private final IdSet enrolledCourses = new IdSet();
 
     /**
      * Constructor for the Student class.
      * @param memName The student's name
      */
     public Student(String memName) {
-        super(UniversityCourseManagementSystem.getNumOfMembers() + 1, memName);
-        enrolledCourses = new ArrayList<>();
+        this(memName, DEFAULT_MAX_ENROLLMENT);
+    }
+
+    /**
+     * Constructor for a student with their own enrollment limit.
+     * @param memName The student's name
+     * @param memMaxEnrollment The maximum number of courses to enroll in
+     */
+    public Student(String memName, int memMaxEnrollment) {
+        super(nextMemberId(), memName);
+        maxEnrollment = memMaxEnrollment;
     }
 
     @Override
-    public boolean drop(Course course) {
+    public synchronized boolean drop(Course course) {
         boolean dropped = false;
-        if (enrolledCourses.contains(course)) {
-            enrolledCourses.remove(course);
+        if (enrolledCourses.remove(course.getCourseId())) {
             course.remove(this);
             dropped = true;
         }
@@ -701,20 +1627,22 @@ class Student extends UniversityMember implements Enrollable {
     }
 
     @Override
-    public boolean enroll(Course course) {
+    public synchronized boolean enroll(Course course) {
         boolean enrolled = false;
-        if (enrolledCourses.size() != MAX_ENROLLMENT
-                && !course.enrolled(this) && !this.enrolledCourses.contains(course)) {
-            course.add(this);
-            enrolledCourses.add(course);
-            enrolled = true;
+        synchronized (course) {
+            if (enrolledCourses.size() != maxEnrollment && !course.isFull()
+                    && !course.enrolled(this) && !enrolledCourses.contains(course.getCourseId())) {
+                course.add(this);
+                enrolledCourses.add(course.getCourseId());
+                enrolled = true;
+            }
         }
         return enrolled;
     }
-    public int enrolledCourses() {
+    public synchronized int enrolledCourses() {
         return enrolledCourses.size();
     }
     public int getMaxEnrollment() {
-        return MAX_ENROLLMENT;
+        return maxEnrollment;
     }
 }